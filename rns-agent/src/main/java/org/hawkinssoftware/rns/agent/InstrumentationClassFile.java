@@ -273,16 +273,8 @@ public class InstrumentationClassFile implements RNSInstrumentationConstants
 
 		Metadata() throws ClassNotFoundException
 		{
-			boolean inOmmittedNamespace = false;
 			String classname = BytecodeInstrumentationUtil.getCanonicalClassname(parsedType);
-			for (String omittedNamespace : omittedNamespaces)
-			{
-				if (classname.matches(omittedNamespace))
-				{
-					inOmmittedNamespace = true;
-					break;
-				}
-			}
+			boolean inOmmittedNamespace = omittedNamespacePatterns.matches(classname);
 
 			boolean foundConstraintInterface = false;
 			for (String parsedTypeInterface : parsedType.getInterfaceNames())
@@ -125,8 +125,8 @@ public class InstrumentationMethodFactory implements RNSInstrumentationConstants
 		public abstract InvokeInstruction createInvocation(InstructionFactory factory);
 	}
 
-	static final Type[] POST_CALLER_PARAMETERS = Type.getTypes(new Class<?>[] { Class.class, String.class });
-	static final Type[] PUSH_MESSAGE_FRAME_PARAMETERS = Type.getTypes(new Class<?>[] { Object.class, String.class });
+	static final Type[] POST_CALLER_PARAMETERS = Type.getTypes(new Class<?>[] { Class.class, int.class });
+	static final Type[] PUSH_MESSAGE_FRAME_PARAMETERS = Type.getTypes(new Class<?>[] { Object.class, int.class });
 	static final Type[] VALIDATION_METHOD_PARAMETERS = Type.getTypes(new Class<?>[] { TypeRole.class, TypeRole.class });
 	static final Type[] VALIDATE_FIELD_ACCESS_PARAMETERS = Type.getTypes(new Class<?>[] { Object.class, Object.class, String.class });
 	static final Type[] CALLEE_QUERY_PARAMETERS = Type.getTypes(new Class<?>[] { Class.class });
@@ -18,6 +18,7 @@ import java.security.ProtectionDomain;
 import org.hawkinssoftware.rns.agent.aop.InitializationClassTransformer;
 import org.hawkinssoftware.rns.agent.lock.SemaphoreClassTransformer;
 import org.hawkinssoftware.rns.agent.message.MessageStackClassTransformer;
+import org.hawkinssoftware.rns.agent.role.DomainRoleClassTransformer;
 import org.hawkinssoftware.rns.agent.validation.ValidationClassTransformer;
 import org.hawkinssoftware.rns.core.aop.ClassLoadObserver;
 import org.hawkinssoftware.rns.core.aop.ClassLoadObserver.FilteredObserver;
@@ -32,6 +33,7 @@ import org.hawkinssoftware.rns.test.agent.TestClassTransformer;
 public class RNSInstrumentationAgent implements ClassFileTransformer
 {
 	private static final String TEST_AGENT = "test-agent";
+	private static final boolean PREREGISTER_DOMAIN_ROLES = (System.getProperty("preregister-domain-roles") != null);
 
 	public byte[] transform(ClassLoader loader, String classname, Class<?> type, ProtectionDomain protectionDomain, byte[] bytes)
 			throws IllegalClassFormatException
@@ -62,6 +64,10 @@ public class RNSInstrumentationAgent implements ClassFileTransformer
 				new ValidationClassTransformer(classfile, methodFactory).instrumentMethods();
 				new InitializationClassTransformer(classfile).instrumentMethods();
 				new SemaphoreClassTransformer(classfile, methodFactory).instrumentMethods();
+				if (PREREGISTER_DOMAIN_ROLES)
+				{
+					new DomainRoleClassTransformer(classfile).instrumentMethods();
+				}
 			}
 			else
 			{
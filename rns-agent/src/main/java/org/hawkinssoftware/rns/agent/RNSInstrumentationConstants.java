@@ -16,6 +16,7 @@ import org.hawkinssoftware.rns.core.moa.ExecutionPath;
 import org.hawkinssoftware.rns.core.role.CommunicationRole;
 import org.hawkinssoftware.rns.core.role.DomainRole;
 import org.hawkinssoftware.rns.core.role.TypeRole;
+import org.hawkinssoftware.rns.core.util.PackagePatternSet;
 import org.hawkinssoftware.rns.core.validation.ValidateInvocation;
 import org.hawkinssoftware.rns.core.validation.ValidateRead;
 import org.hawkinssoftware.rns.core.validation.ValidateWrite;
@@ -30,12 +31,14 @@ public interface RNSInstrumentationConstants
 {
 	static final String[] omittedNamespaces = new String[] { "org\\.hawkinssoftware\\.rns\\.core\\..*", "org\\.hawkinssoftware\\.rns\\.agent\\..*", "\\$.*",
 			"sun\\..*", "com\\.sun\\..*" };
+	static final PackagePatternSet omittedNamespacePatterns = new PackagePatternSet(omittedNamespaces);
 
 	static final String EXECUTION_PATH_CLASSNAME = ExecutionPath.class.getName();
 	static final String EXECUTION_PATH_CONSTRAINT_CLASSNAME = ExecutionPath.StackObserver.class.getName();
 
 	static final String COMMUNICATION_ROLE_CLASSNAME = CommunicationRole.class.getCanonicalName();
 	static final String DOMAIN_ROLE_ANNOTATION_TYPENAME = BytecodeInstrumentationUtil.getBytecodeClassname(DomainRole.Join.class);
+	static final String DOMAIN_ROLE_INSTANCE_ANNOTATION_TYPENAME = BytecodeInstrumentationUtil.getBytecodeClassname(DomainRole.Instance.class);
 	static final String TYPE_ROLE_CLASSNAME = BytecodeInstrumentationUtil.getBytecodeClassname(TypeRole.class);
 
 	static final String HOOK_SEMAPHORES_ANNOTATION_TYPENAME = BytecodeInstrumentationUtil.getBytecodeClassname(HookSemaphores.class);
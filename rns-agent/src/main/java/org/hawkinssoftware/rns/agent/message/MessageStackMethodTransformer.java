@@ -22,6 +22,7 @@ import org.hawkinssoftware.rns.agent.AbstractMethodTransformer;
 import org.hawkinssoftware.rns.agent.BytecodeInstrumentationUtil;
 import org.hawkinssoftware.rns.agent.InstrumentationMethodFactory.MethodInvocation;
 import org.hawkinssoftware.rns.agent.RNSInstrumentationConstants;
+import org.hawkinssoftware.rns.core.moa.MethodDescriptorRegistry;
 
 /**
  * DOC comment task awaits.
@@ -62,7 +63,7 @@ public class MessageStackMethodTransformer extends AbstractMethodTransformer imp
 
 					instructions
 							.insert(iterationHandle, new PUSH(c.constants, new ObjectType(BytecodeInstrumentationUtil.getCanonicalClassname(c.parsedType))));
-					instructions.insert(iterationHandle, new PUSH(c.constants, callDescription));
+					instructions.insert(iterationHandle, new PUSH(c.constants, MethodDescriptorRegistry.register(callDescription)));
 					instructions.insert(iterationHandle, classTransformer.methodFactory.buildInvocation(MethodInvocation.POST_CALLER));
 					insertedCode = true;
 				}
@@ -82,7 +83,7 @@ public class MessageStackMethodTransformer extends AbstractMethodTransformer imp
 		String methodDescription = BytecodeInstrumentationUtil.getCanonicalClassname(c.parsedType) + ".<init-pre-super>()";
 
 		instructions.insert(handle, new PUSH(c.constants, new ObjectType(BytecodeInstrumentationUtil.getCanonicalClassname(c.parsedType))));
-		instructions.insert(handle, new PUSH(c.constants, methodDescription));
+		instructions.insert(handle, new PUSH(c.constants, MethodDescriptorRegistry.register(methodDescription)));
 		instructions.insert(handle, classTransformer.methodFactory.buildInvocation(MethodInvocation.INVOCATION_STACK_PUSH));
 
 		// warning: handle condition after insertion is quite unreliable
@@ -131,7 +132,7 @@ public class MessageStackMethodTransformer extends AbstractMethodTransformer imp
 		{
 			instructions.insert(startHandle, InstructionFactory.createThis());
 		}
-		instructions.insert(startHandle, new PUSH(c.constants, methodDescription));
+		instructions.insert(startHandle, new PUSH(c.constants, MethodDescriptorRegistry.register(methodDescription)));
 		instructions.insert(startHandle, classTransformer.methodFactory.buildInvocation(MethodInvocation.INVOCATION_STACK_PUSH));
 	}
 
@@ -142,8 +143,9 @@ public class MessageStackMethodTransformer extends AbstractMethodTransformer imp
 	 * 1. add a validation call at the top if the class has a communication role, 
 	 *    or if the method or class is annotated with @ValidationMethod
 	 * 2. add a message stack push 
-	 * 3. for every method call, post the name of this class (parsedType) to ExecutionPath.postCurrentCaller(),
-	 *    so that message stack pushes know where the call came from
+	 * 3. for every method call, post the name of this class (parsedType) to ExecutionPath.postCaller(),
+	 *    so that message stack pushes know where the call came from (method and call site descriptions are
+	 *    registered in the MethodDescriptorRegistry here, and only their int ids are instrumented)
 	 * 4. wrap from #2 to the end of the method in a try/catch--very important not to include the validation call 
 	 *    in the try, because it may throw and the message stack frame is not pushed yet, so the catch (b) would 
 	 *    erroneously pop the previous method's stack frame.
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2011 HawkinsSoftware
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Byron Hawkins of HawkinsSoftware
+ */
+package org.hawkinssoftware.rns.agent.role;
+
+import org.apache.bcel.classfile.AnnotationEntry;
+import org.apache.bcel.classfile.Field;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.InstructionFactory;
+import org.hawkinssoftware.rns.agent.InstrumentationClassFile;
+import org.hawkinssoftware.rns.agent.RNSInstrumentationConstants;
+
+/**
+ * Pre-registers the singleton instance of each DomainRole with <code>DomainRole.Resolver</code> at the end of the
+ * class's static initializer, so that the resolver never has to reflect on the class to find its
+ * <code>@DomainRole.Instance</code> field.
+ * 
+ * @author Byron Hawkins
+ */
+public class DomainRoleClassTransformer implements RNSInstrumentationConstants
+{
+	// class constants in the constant pool require classfile version 49 (Java 5)
+	private static final int MINIMUM_MAJOR_VERSION = 49;
+
+	final InstrumentationClassFile classfile;
+	final InstructionFactory factory;
+
+	public DomainRoleClassTransformer(InstrumentationClassFile classfile)
+	{
+		this.classfile = classfile;
+		factory = new InstructionFactory(classfile.constants);
+	}
+
+	public void instrumentMethods()
+	{
+		if (classfile.metadata.isExcluded || !classfile.metadata.isCommunicationRole || (classfile.parsedType.getMajor() < MINIMUM_MAJOR_VERSION))
+		{
+			return;
+		}
+
+		Field instanceField = findInstanceField();
+		if (instanceField == null)
+		{
+			return;
+		}
+
+		Method[] methods = classfile.parsedType.getMethods();
+		for (int methodIndex = 0; methodIndex < methods.length; methodIndex++)
+		{
+			Method method = methods[methodIndex];
+			if (!method.getName().equals("<clinit>") || (method.getCode() == null))
+			{
+				continue;
+			}
+
+			try
+			{
+				Method newMethod = new DomainRoleMethodTransformer(this, method, instanceField).instrumentInstanceRegistration();
+				classfile.setChanged();
+				methods[methodIndex] = newMethod;
+			}
+			catch (Throwable t)
+			{
+				t.printStackTrace();
+			}
+		}
+	}
+
+	private Field findInstanceField()
+	{
+		for (Field field : classfile.parsedType.getFields())
+		{
+			if (!field.isStatic())
+			{
+				continue;
+			}
+			for (AnnotationEntry annotation : field.getAnnotationEntries())
+			{
+				if (annotation.getAnnotationType().equals(DOMAIN_ROLE_INSTANCE_ANNOTATION_TYPENAME))
+				{
+					return field;
+				}
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2011 HawkinsSoftware
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Byron Hawkins of HawkinsSoftware
+ */
+package org.hawkinssoftware.rns.agent.role;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.classfile.Field;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.Instruction;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.LDC;
+import org.apache.bcel.generic.ReturnInstruction;
+import org.apache.bcel.generic.Type;
+import org.hawkinssoftware.rns.agent.AbstractMethodTransformer;
+import org.hawkinssoftware.rns.core.role.DomainRole;
+
+/**
+ * DOC comment task awaits.
+ * 
+ * @author Byron Hawkins
+ */
+public class DomainRoleMethodTransformer extends AbstractMethodTransformer
+{
+	private static final String DOMAIN_ROLE_RESOLVER_CLASSNAME = DomainRole.Resolver.class.getName();
+
+	private final DomainRoleClassTransformer classTransformer;
+	private final Field instanceField;
+
+	/**
+	 * @param method
+	 *            the static initializer of a DomainRole
+	 * @param instanceField
+	 *            the field annotated with <code>@DomainRole.Instance</code>
+	 */
+	DomainRoleMethodTransformer(DomainRoleClassTransformer classTransformer, Method method, Field instanceField)
+	{
+		super(classTransformer.classfile, method);
+
+		this.classTransformer = classTransformer;
+		this.instanceField = instanceField;
+	}
+
+	/**
+	 * Invoke <code>DomainRole.Resolver.register(type, instance)</code> before each return from the static
+	 * initializer, where the instance field has been assigned.
+	 */
+	Method instrumentInstanceRegistration()
+	{
+		String classname = c.parsedType.getClassName();
+		int classConstant = c.constants.addClass(classname);
+
+		InstructionHandle iteratorHandle = instructions.getStart();
+		while (iteratorHandle != null)
+		{
+			Instruction instruction = iteratorHandle.getInstruction();
+			if (instruction instanceof ReturnInstruction)
+			{
+				InstructionList registration = new InstructionList();
+				registration.append(new LDC(classConstant));
+				registration.append(classTransformer.factory.createFieldAccess(classname, instanceField.getName(), Type.getType(instanceField.getSignature()),
+						Constants.GETSTATIC));
+				registration.append(classTransformer.factory.createInvoke(DOMAIN_ROLE_RESOLVER_CLASSNAME, "register", Type.VOID,
+						Type.getTypes(new Class<?>[] { Class.class, DomainRole.class }), Constants.INVOKESTATIC));
+
+				// branches to the return must now land on the registration
+				InstructionHandle registrationStart = instructions.insert(iteratorHandle, registration);
+				instructions.redirectBranches(iteratorHandle, registrationStart);
+			}
+			iteratorHandle = iteratorHandle.getNext();
+		}
+
+		instructions.setPositions(true);
+		return compileMethod();
+	}
+}
@@ -0,0 +1,142 @@
+package org.hawkinssoftware.rns.test.benchmark;
+
+import org.hawkinssoftware.rns.core.moa.ExecutionPath;
+import org.hawkinssoftware.rns.core.moa.MethodDescriptorRegistry;
+
+/**
+ * Measures <code>ExecutionPath.getMostRecentCaller()</code> and <code>getPriorCaller()</code> at several stack depths,
+ * first walking the stack and then with the caller type indexed by <code>ExecutionPath.indexCallerType()</code>. The
+ * frames are pushed directly onto the path, so the benchmark runs with or without the RNS agent. The queried callers
+ * are at the bottom of the stack, which is the worst case for the walk.
+ * 
+ * @author Byron Hawkins
+ */
+public class CallerLookupBenchmark
+{
+	private static final int[] DEPTHS = { 10, 40, 100, 400 };
+	private static final int WARMUP_ITERATIONS = 200000;
+	private static final int MEASURED_ITERATIONS = 2000000;
+
+	private static class Handler
+	{
+	}
+
+	private static class Filler
+	{
+	}
+
+	private static final int METHOD_ID = MethodDescriptorRegistry.UNKNOWN;
+
+	private final Handler outerHandler = new Handler();
+	private final Handler innerHandler = new Handler();
+	private final Filler filler = new Filler();
+
+	// consumed so the lookups cannot be eliminated
+	private int found = 0;
+
+	private void pushStack(int depth)
+	{
+		ExecutionPath.pushInvocationFrame(outerHandler, METHOD_ID);
+		ExecutionPath.pushInvocationFrame(innerHandler, METHOD_ID);
+		for (int i = 2; i < depth; i++)
+		{
+			ExecutionPath.pushInvocationFrame(filler, METHOD_ID);
+		}
+	}
+
+	private void popStack(int depth)
+	{
+		for (int i = 0; i < depth; i++)
+		{
+			ExecutionPath.popInvocationFrame();
+		}
+	}
+
+	private void lookup(int iterations)
+	{
+		for (int i = 0; i < iterations; i++)
+		{
+			Handler handler = ExecutionPath.getMostRecentCaller(Handler.class);
+			if (ExecutionPath.getPriorCaller(Handler.class, handler) == outerHandler)
+			{
+				found++;
+			}
+		}
+	}
+
+	private void measure(String label, int depth)
+	{
+		pushStack(depth);
+		try
+		{
+			lookup(WARMUP_ITERATIONS);
+
+			long start = System.nanoTime();
+			lookup(MEASURED_ITERATIONS);
+			long elapsed = System.nanoTime() - start;
+
+			System.out.println(label + " depth " + depth + ": " + (elapsed / MEASURED_ITERATIONS) + " ns per lookup pair");
+		}
+		finally
+		{
+			popStack(depth);
+		}
+	}
+
+	private void measurePushPop(String label, int depth)
+	{
+		for (int i = 0; i < (WARMUP_ITERATIONS / depth); i++)
+		{
+			pushStack(depth);
+			popStack(depth);
+		}
+
+		int iterations = MEASURED_ITERATIONS / depth;
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++)
+		{
+			pushStack(depth);
+			popStack(depth);
+		}
+		long elapsed = System.nanoTime() - start;
+
+		System.out.println(label + " depth " + depth + ": " + (elapsed / (iterations * (long) depth)) + " ns per push/pop");
+	}
+
+	private void run()
+	{
+		for (int depth : DEPTHS)
+		{
+			measure("walk   ", depth);
+		}
+		for (int depth : DEPTHS)
+		{
+			measurePushPop("walk   ", depth);
+		}
+
+		ExecutionPath.indexCallerType(Handler.class);
+
+		for (int depth : DEPTHS)
+		{
+			measure("indexed", depth);
+		}
+		for (int depth : DEPTHS)
+		{
+			measurePushPop("indexed", depth);
+		}
+
+		System.out.println("(found " + found + ")");
+	}
+
+	public static void main(String[] args)
+	{
+		try
+		{
+			new CallerLookupBenchmark().run();
+		}
+		catch (Throwable t)
+		{
+			t.printStackTrace();
+		}
+	}
+}
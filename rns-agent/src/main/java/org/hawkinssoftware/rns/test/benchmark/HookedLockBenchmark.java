@@ -0,0 +1,73 @@
+package org.hawkinssoftware.rns.test.benchmark;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.hawkinssoftware.rns.core.lock.ContentionProfilingHook;
+import org.hawkinssoftware.rns.core.lock.HookedLock;
+import org.hawkinssoftware.rns.core.lock.HookedReadWriteLock;
+
+/**
+ * Measures an uncontended lock/unlock pair on a raw <code>ReentrantLock</code> and read lock of a
+ * <code>ReentrantReadWriteLock</code>, and on their hooked counterparts in contention-only mode with a hook set and
+ * sampling disabled, which is the cost the contention-only mode adds to every acquisition that does not wait.
+ * 
+ * @author Byron Hawkins
+ */
+public class HookedLockBenchmark
+{
+	private static final int WARMUP_ITERATIONS = 2000000;
+	private static final int MEASURED_ITERATIONS = 20000000;
+
+	private static void lockUnlock(Lock lock, int iterations)
+	{
+		for (int i = 0; i < iterations; i++)
+		{
+			lock.lock();
+			lock.unlock();
+		}
+	}
+
+	private static void measure(String label, Lock lock)
+	{
+		lockUnlock(lock, WARMUP_ITERATIONS);
+
+		long start = System.nanoTime();
+		lockUnlock(lock, MEASURED_ITERATIONS);
+		long elapsed = System.nanoTime() - start;
+
+		System.out.println(label + ": " + ((elapsed * 10L) / MEASURED_ITERATIONS) / 10.0 + " ns per lock/unlock");
+	}
+
+	private void run()
+	{
+		HookedLock<ReentrantLock> hookedLock = new HookedLock<ReentrantLock>(new ReentrantLock());
+		hookedLock.setHook(ContentionProfilingHook.INSTANCE);
+		hookedLock.setContentionOnly(0);
+
+		HookedReadWriteLock hookedReadWriteLock = new HookedReadWriteLock();
+		hookedReadWriteLock.setBothHooks(ContentionProfilingHook.INSTANCE);
+		hookedReadWriteLock.setContentionOnly(0);
+
+		for (int round = 0; round < 2; round++)
+		{
+			measure("raw ReentrantLock           ", new ReentrantLock());
+			measure("contention-only HookedLock  ", hookedLock);
+			measure("raw read lock               ", new ReentrantReadWriteLock().readLock());
+			measure("contention-only read lock   ", hookedReadWriteLock.readLock());
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		try
+		{
+			new HookedLockBenchmark().run();
+		}
+		catch (Throwable t)
+		{
+			t.printStackTrace();
+		}
+	}
+}
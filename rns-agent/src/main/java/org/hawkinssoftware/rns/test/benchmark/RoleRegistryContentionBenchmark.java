@@ -0,0 +1,116 @@
+package org.hawkinssoftware.rns.test.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hawkinssoftware.rns.core.role.RoleRegistry;
+import org.hawkinssoftware.rns.core.role.TypeRole;
+
+/**
+ * Measures <code>RoleRegistry.getRole()</code> throughput with 64 threads which all start at once, so the first
+ * lookups of each class race with each other, and then continue to look up the same classes. Each thread verifies that
+ * it sees the same <code>TypeRole</code> instance for a class as every other thread.
+ * 
+ * @author Byron Hawkins
+ */
+public class RoleRegistryContentionBenchmark
+{
+	private static final int THREAD_COUNT = 64;
+	private static final int LOOKUPS_PER_THREAD = 5000000;
+
+	private static final Class<?>[] TYPES = { String.class, Integer.class, Long.class, ArrayList.class, LinkedList.class, HashMap.class,
+			TreeMap.class, StringBuilder.class, Thread.class, Object.class, RoleRegistryContentionBenchmark.class, Worker.class };
+
+	private final TypeRole[] firstSeen = new TypeRole[TYPES.length];
+	private final AtomicLong totalLookups = new AtomicLong();
+	private volatile boolean consistent = true;
+
+	private class Worker implements Runnable
+	{
+		private final CountDownLatch start;
+		private final CountDownLatch finished;
+
+		Worker(CountDownLatch start, CountDownLatch finished)
+		{
+			this.start = start;
+			this.finished = finished;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				start.await();
+				for (int i = 0; i < TYPES.length; i++)
+				{
+					TypeRole role = RoleRegistry.getRole(TYPES[i]);
+					synchronized (firstSeen)
+					{
+						if (firstSeen[i] == null)
+						{
+							firstSeen[i] = role;
+						}
+						else if (firstSeen[i] != role)
+						{
+							consistent = false;
+						}
+					}
+				}
+
+				long lookups = 0;
+				for (int i = 0; i < LOOKUPS_PER_THREAD; i++)
+				{
+					if (RoleRegistry.getRole(TYPES[i % TYPES.length]) != null)
+					{
+						lookups++;
+					}
+				}
+				totalLookups.addAndGet(lookups);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			finally
+			{
+				finished.countDown();
+			}
+		}
+	}
+
+	private void run() throws InterruptedException
+	{
+		CountDownLatch start = new CountDownLatch(1);
+		CountDownLatch finished = new CountDownLatch(THREAD_COUNT);
+		for (int i = 0; i < THREAD_COUNT; i++)
+		{
+			new Thread(new Worker(start, finished)).start();
+		}
+
+		long startTime = System.nanoTime();
+		start.countDown();
+		finished.await();
+		long elapsed = System.nanoTime() - startTime;
+
+		System.out.println(THREAD_COUNT + " threads, " + totalLookups.get() + " lookups in " + (elapsed / 1000000L) + "ms: "
+				+ ((totalLookups.get() * 1000L) / elapsed) + " lookups per microsecond");
+		System.out.println("Consistent roles across threads: " + consistent);
+	}
+
+	public static void main(String[] args)
+	{
+		try
+		{
+			new RoleRegistryContentionBenchmark().run();
+		}
+		catch (Throwable t)
+		{
+			t.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package org.hawkinssoftware.rns.test.benchmark;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+
+import org.hawkinssoftware.rns.core.moa.ExecutionPath;
+
+/**
+ * Spawns a large number of threads (one million by default) which each enter a few instrumented methods and then park
+ * while holding their <code>ExecutionPath</code>, and reports the elapsed time and the heap retained per parked thread.
+ * Run with the RNS agent and <code>-Dvirtual-thread-mode</code>. Virtual threads are started reflectively, so on a JVM
+ * without them the benchmark falls back to a limited number of platform threads.
+ * 
+ * @author Byron Hawkins
+ */
+public class VirtualThreadPathBenchmark
+{
+	private static final int DEFAULT_THREAD_COUNT = 1000000;
+	private static final int PLATFORM_THREAD_LIMIT = 10000;
+
+	private static class Worker implements Runnable
+	{
+		private final CountDownLatch started;
+		private final CountDownLatch release;
+		private final CountDownLatch finished;
+
+		Worker(CountDownLatch started, CountDownLatch release, CountDownLatch finished)
+		{
+			this.started = started;
+			this.release = release;
+			this.finished = finished;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				descend(3);
+				started.countDown();
+				release.await();
+				descend(3);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			finally
+			{
+				finished.countDown();
+			}
+		}
+
+		private int descend(int depth)
+		{
+			if (depth == 0)
+			{
+				return ExecutionPath.isStackEmpty() ? 0 : 1;
+			}
+			return descend(depth - 1) + 1;
+		}
+	}
+
+	private final Method startVirtualThread;
+
+	VirtualThreadPathBenchmark()
+	{
+		Method method = null;
+		try
+		{
+			method = Thread.class.getMethod("startVirtualThread", Runnable.class);
+		}
+		catch (NoSuchMethodException e)
+		{
+			System.out.println("Virtual threads are not available in this JVM; falling back to platform threads.");
+		}
+		startVirtualThread = method;
+	}
+
+	private void start(Runnable task) throws Exception
+	{
+		if (startVirtualThread == null)
+		{
+			Thread thread = new Thread(task);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		else
+		{
+			startVirtualThread.invoke(null, task);
+		}
+	}
+
+	private static long usedHeap()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+		{
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private void run(int threadCount) throws Exception
+	{
+		if ((startVirtualThread == null) && (threadCount > PLATFORM_THREAD_LIMIT))
+		{
+			threadCount = PLATFORM_THREAD_LIMIT;
+		}
+
+		CountDownLatch started = new CountDownLatch(threadCount);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch finished = new CountDownLatch(threadCount);
+
+		long baselineHeap = usedHeap();
+		long startTime = System.nanoTime();
+		for (int i = 0; i < threadCount; i++)
+		{
+			start(new Worker(started, release, finished));
+		}
+		started.await();
+		long spawnTime = System.nanoTime() - startTime;
+		long parkedHeap = usedHeap();
+
+		release.countDown();
+		finished.await();
+		long totalTime = System.nanoTime() - startTime;
+
+		System.out.println("Threads: " + threadCount + (startVirtualThread == null ? " (platform)" : " (virtual)"));
+		System.out.println("Spawn and enter: " + (spawnTime / 1000000L) + "ms; complete: " + (totalTime / 1000000L) + "ms");
+		System.out.println("Retained heap per parked thread: " + ((parkedHeap - baselineHeap) / threadCount) + " bytes");
+		if (System.getProperty("virtual-thread-mode") == null)
+		{
+			// paths are not registered in virtual-thread-mode, so the count is only meaningful without it
+			System.out.println("Registered paths: " + ExecutionPath.Universe.getInstance().getLivePathCount());
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		try
+		{
+			int threadCount = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_THREAD_COUNT;
+			new VirtualThreadPathBenchmark().run(threadCount);
+		}
+		catch (Throwable t)
+		{
+			t.printStackTrace();
+		}
+	}
+}
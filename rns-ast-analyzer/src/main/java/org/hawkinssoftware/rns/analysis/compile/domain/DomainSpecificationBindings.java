@@ -20,6 +20,7 @@ import java.util.Set;
 import org.eclipse.jdt.core.JavaModelException;
 import org.hawkinssoftware.rns.core.role.DomainRole;
 import org.hawkinssoftware.rns.core.role.DomainSpecifications;
+import org.hawkinssoftware.rns.core.util.PackagePatternSet;
 
 /**
  * DOC comment task awaits.
@@ -86,12 +87,12 @@ public class DomainSpecificationBindings
 	static class OrthogonalSet
 	{
 		final Set<DomainRoleTypeBinding> domains;
-		final List<String> packagePatterns;
+		final PackagePatternSet packagePatterns;
 
 		OrthogonalSet(Set<DomainRoleTypeBinding> domains, List<String> packagePatterns) throws JavaModelException
 		{
 			this.domains = domains;
-			this.packagePatterns = packagePatterns;
+			this.packagePatterns = new PackagePatternSet(packagePatterns);
 		}
 
 		void evaluate(EvaluationResult result, String memberTypename, Collection<DomainRoleTypeBinding> typeDomains)
@@ -124,12 +125,10 @@ public class DomainSpecificationBindings
 					result.addProblem(DomainRole.class.getSimpleName() + " orthogonal set collision: %s must not coincide on any type.", buffer.toString());
 				}
 
-				for (String packagePattern : packagePatterns)
+				String packagePattern = packagePatterns.getMatchingPattern(memberTypename);
+				if (packagePattern != null)
 				{
-					if (packagePattern.matches(memberTypename))
-					{
-						result.addProblem("Package orthogonality violation: %s must not coincide with package %s", buffer.toString());
-					}
+					result.addProblem("Package orthogonality violation: %s must not coincide with package %s", buffer.toString(), packagePattern);
 				}
 			}
 		}
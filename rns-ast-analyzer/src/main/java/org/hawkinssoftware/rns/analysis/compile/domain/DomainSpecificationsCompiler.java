@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2011 HawkinsSoftware
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Byron Hawkins of HawkinsSoftware
+ */
+package org.hawkinssoftware.rns.analysis.compile.domain;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.hawkinssoftware.rns.core.role.DomainRole;
+import org.hawkinssoftware.rns.core.role.DomainSpecifications;
+import org.hawkinssoftware.rns.core.role.DomainSpecificationsLoader;
+
+/**
+ * Build-time tool which compiles a <code>*.domains.xml</code> document into the Java source of a
+ * <code>CompiledDomainSpecifications</code>. Each domain typename is resolved here, against the build classpath, to
+ * the public static field annotated with <code>@DomainRole.Instance</code>; the generated source refers to that field
+ * directly, so the application can register its specifications at startup without parsing or reflection.
+ * <p>
+ * Usage: <code>DomainSpecificationsCompiler &lt;specification-file&gt; &lt;source-folder&gt; &lt;classname&gt;</code>,
+ * where the classname is fully qualified. The compiled domain classes must be on the classpath.
+ * 
+ * @author Byron Hawkins
+ */
+public class DomainSpecificationsCompiler
+{
+	public static void main(String[] args)
+	{
+		if (args.length != 3)
+		{
+			System.err.println("Usage: " + DomainSpecificationsCompiler.class.getName() + " <specification-file> <source-folder> <classname>");
+			System.exit(1);
+		}
+
+		try
+		{
+			InputStream in = new FileInputStream(args[0]);
+			DomainSpecifications specifications;
+			try
+			{
+				specifications = DomainSpecificationsLoader.load(in);
+			}
+			finally
+			{
+				in.close();
+			}
+
+			File sourceFile = new File(args[1], args[2].replace('.', File.separatorChar) + ".java");
+			compile(specifications, args[2], sourceFile);
+			System.out.println("Compiled " + args[0] + " to " + sourceFile);
+		}
+		catch (Throwable t)
+		{
+			t.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	public static void compile(DomainSpecifications specifications, String classname, File sourceFile) throws IOException, ClassNotFoundException
+	{
+		int packageEnd = classname.lastIndexOf('.');
+		String packageName = (packageEnd < 0) ? null : classname.substring(0, packageEnd);
+		String simpleName = classname.substring(packageEnd + 1);
+
+		// resolve everything before writing, so that a bad specification leaves no partial source behind
+		StringBuilder body = new StringBuilder();
+		for (DomainSpecifications.OrthogonalSet orthogonalSet : specifications.orthogonalSets)
+		{
+			body.append("\t\tsets.add(new DomainRole.OrthogonalSet(new DomainRole[] {");
+			String separator = " ";
+			for (String domainTypename : orthogonalSet.domainTypenames)
+			{
+				body.append(separator).append(getInstanceReference(domainTypename));
+				separator = ", ";
+			}
+			body.append(" }, new String[] {");
+			separator = " ";
+			for (String packagePattern : orthogonalSet.packagePatterns)
+			{
+				body.append(separator).append('"').append(escape(packagePattern)).append('"');
+				separator = ", ";
+			}
+			body.append(" }));\n");
+		}
+
+		File folder = sourceFile.getParentFile();
+		if ((folder != null) && !folder.isDirectory() && !folder.mkdirs())
+		{
+			throw new IOException("Failed to create the source folder " + folder);
+		}
+
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(sourceFile), "UTF-8"));
+		try
+		{
+			if (packageName != null)
+			{
+				out.print("package " + packageName + ";\n\n");
+			}
+			out.print("import java.util.ArrayList;\n");
+			out.print("import java.util.List;\n\n");
+			out.print("import org.hawkinssoftware.rns.core.role.CompiledDomainSpecifications;\n");
+			out.print("import org.hawkinssoftware.rns.core.role.DomainRole;\n\n");
+			out.print("/**\n * Generated by " + DomainSpecificationsCompiler.class.getSimpleName() + "; do not edit.\n */\n");
+			out.print("public class " + simpleName + " implements CompiledDomainSpecifications\n{\n");
+			out.print("\tpublic List<DomainRole.OrthogonalSet> getOrthogonalSets()\n\t{\n");
+			out.print("\t\tList<DomainRole.OrthogonalSet> sets = new ArrayList<DomainRole.OrthogonalSet>();\n");
+			out.print(body);
+			out.print("\t\treturn sets;\n\t}\n}\n");
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	private static String getInstanceReference(String domainTypename) throws ClassNotFoundException
+	{
+		// don't initialize the domain classes; only their declarations are needed here
+		Class<?> domainType = Class.forName(domainTypename, false, DomainSpecificationsCompiler.class.getClassLoader());
+		if (!DomainRole.class.isAssignableFrom(domainType))
+		{
+			throw new IllegalArgumentException("Type " + domainTypename + " is not a DomainRole.");
+		}
+
+		for (Field field : domainType.getDeclaredFields())
+		{
+			int modifiers = field.getModifiers();
+			if (Modifier.isStatic(modifiers) && (field.getAnnotation(DomainRole.Instance.class) != null))
+			{
+				if (!Modifier.isPublic(modifiers) || !Modifier.isPublic(domainType.getModifiers()))
+				{
+					throw new IllegalArgumentException("The instance of domain role " + domainTypename
+							+ " must be public to be referenced from compiled specifications.");
+				}
+				return domainType.getCanonicalName() + "." + field.getName();
+			}
+		}
+		throw new IllegalStateException("Domain role " + domainTypename + " has no instance!");
+	}
+
+	private static String escape(String literal)
+	{
+		return literal.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+}
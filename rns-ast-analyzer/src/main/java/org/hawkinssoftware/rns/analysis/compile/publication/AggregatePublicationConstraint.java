@@ -22,6 +22,7 @@ import org.hawkinssoftware.rns.analysis.compile.domain.DomainRoleTypeBinding;
 import org.hawkinssoftware.rns.analysis.compile.util.RNSBuildAnalyzerUtils;
 import org.hawkinssoftware.rns.core.log.Log;
 import org.hawkinssoftware.rns.core.publication.InvocationConstraint;
+import org.hawkinssoftware.rns.core.util.PackagePatternSet;
 import org.hawkinssoftware.rns.core.util.RNSLogging.Tag;
 
 /**
@@ -36,6 +37,8 @@ class AggregatePublicationConstraint
 	private final IType constrainedType;
 
 	final Set<String> packages;
+	// the same patterns as packages, compiled for matching
+	final PackagePatternSet packagePatterns;
 	final Set<DomainRoleTypeBinding> domains;
 	final Set<String> typenames;
 	final Set<String> extendedTypenames;
@@ -50,6 +53,7 @@ class AggregatePublicationConstraint
 		assembler.assemble(constraint);
 
 		packages = Collections.unmodifiableSet(assembler.packages);
+		packagePatterns = new PackagePatternSet(packages);
 		domains = Collections.unmodifiableSet(assembler.domains);
 		typenames = Collections.unmodifiableSet(assembler.typenames);
 		extendedTypenames = Collections.unmodifiableSet(assembler.extendedTypenames);
@@ -61,6 +65,7 @@ class AggregatePublicationConstraint
 	{
 		this.constrainedType = constrainedType;
 		packages = Collections.unmodifiableSet(assembler.packages);
+		packagePatterns = new PackagePatternSet(packages);
 		domains = Collections.unmodifiableSet(assembler.domains);
 		typenames = Collections.unmodifiableSet(assembler.typenames);
 		extendedTypenames = Collections.unmodifiableSet(assembler.extendedTypenames);
@@ -63,12 +63,9 @@ public class PublicationConstraintUsageChecker
 	 */
 	boolean isValid(SourceReferenceInstruction<?, ?> reference, AggregatePublicationConstraint publicationConstraint)
 	{
-		for (String packagePattern : publicationConstraint.packages)
+		if (publicationConstraint.packagePatterns.matches(reference.getContainingPackageName()))
 		{
-			if (reference.getContainingPackageName().matches(packagePattern))
-			{
-				return true;
-			}
+			return true;
 		}
 
 		for (DomainRoleTypeBinding domainBinding : publicationConstraint.domains)
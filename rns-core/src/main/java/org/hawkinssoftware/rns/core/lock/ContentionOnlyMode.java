@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2011 HawkinsSoftware
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Byron Hawkins of HawkinsSoftware
+ */
+package org.hawkinssoftware.rns.core.lock;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Configuration and state of the contention-only hooking mode of <code>HookedLock</code> and
+ * <code>HookedReadWriteLock</code>. In this mode an acquisition first tries the lock without waiting, and reports to
+ * the <code>LockHook</code> only if that fails (the lock is contended) or if the acquisition is selected by sampling,
+ * so an uncontended acquisition costs about as much as the raw lock. A release is reported only if its acquisition
+ * was. The hooked locks delegate each operation to this mode, passing the raw lock which does the work and the hooked
+ * lock which is reported to the hook.
+ * <p>
+ * An untimed <code>tryLock()</code> which fails is reported as an acquisition attempt followed by one more
+ * <code>tryLock()</code>, as if it were blocking; when that also fails, the hook sees an attempt without an
+ * acquisition, which is how it sees any failed <code>tryLock()</code>.
+ * <p>
+ * Because the fast path is a <code>tryLock()</code>, it may barge ahead of waiting threads on a fair lock.
+ * 
+ * @author Byron Hawkins
+ */
+class ContentionOnlyMode
+{
+	/**
+	 * Records, per nesting depth of the current holder, whether each acquisition was reported to the hook. Depths
+	 * beyond 64 are never reported.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	static abstract class Holds
+	{
+		/**
+		 * For a lock held by one thread at a time: the state is only touched by the holder, under the lock. A release
+		 * by any other thread leaves the state alone, so that the raw lock can reject it without corrupting the
+		 * holder's record.
+		 */
+		static Holds exclusive()
+		{
+			return new Holds() {
+				// written only by the holder, so another thread never reads itself here
+				private Thread holder = null;
+				private int depth = 0;
+				private long reported = 0L;
+
+				@Override
+				void acquired(boolean report)
+				{
+					if (depth == 0)
+					{
+						holder = Thread.currentThread();
+					}
+					depth = push(depth, report);
+				}
+
+				@Override
+				boolean released()
+				{
+					if (holder != Thread.currentThread())
+					{
+						return false;
+					}
+					depth--;
+					if (depth == 0)
+					{
+						holder = null;
+					}
+					return isReported(depth);
+				}
+
+				private int push(int depth, boolean report)
+				{
+					if (depth < 64)
+					{
+						reported = report ? (reported | (1L << depth)) : (reported & ~(1L << depth));
+					}
+					return depth + 1;
+				}
+
+				private boolean isReported(int depth)
+				{
+					return (depth < 64) && ((reported & (1L << depth)) != 0L);
+				}
+			};
+		}
+
+		/**
+		 * For the read lock of <code>lock</code>, which may be held by several threads at once. The nesting depth is the
+		 * lock's own read hold count, and only reported acquisitions are recorded, in a per-thread bitset; while no
+		 * reported acquisition is outstanding on any thread, neither an unreported acquisition nor a release touches
+		 * the per-thread state, so the uncontended path adds one volatile read to the raw read lock.
+		 */
+		static Holds shared(final ReentrantReadWriteLock lock)
+		{
+			return new Holds() {
+				private final AtomicInteger outstandingReports = new AtomicInteger();
+				// bit (depth - 1) is set while the read hold of the thread at that depth was reported
+				private final ThreadLocal<long[]> reported = new ThreadLocal<long[]>() {
+					@Override
+					protected long[] initialValue()
+					{
+						return new long[1];
+					}
+				};
+
+				@Override
+				void acquired(boolean report)
+				{
+					if (report)
+					{
+						int depth = lock.getReadHoldCount();
+						if (depth <= 64)
+						{
+							reported.get()[0] |= (1L << (depth - 1));
+							outstandingReports.incrementAndGet();
+						}
+					}
+				}
+
+				@Override
+				boolean released()
+				{
+					if (outstandingReports.get() == 0)
+					{
+						return false;
+					}
+					int depth = lock.getReadHoldCount();
+					if ((depth < 1) || (depth > 64))
+					{
+						return false;
+					}
+					long[] holder = reported.get();
+					long bit = 1L << (depth - 1);
+					if ((holder[0] & bit) == 0L)
+					{
+						return false;
+					}
+					holder[0] &= ~bit;
+					outstandingReports.decrementAndGet();
+					return true;
+				}
+			};
+		}
+
+		abstract void acquired(boolean report);
+
+		/**
+		 * Must be called before the lock is actually released, while the calling thread is still the holder.
+		 * 
+		 * @return whether the matching acquisition was reported
+		 */
+		abstract boolean released();
+	}
+
+	final int samplingInterval;
+	final Holds holds;
+
+	/**
+	 * @param samplingInterval
+	 *            report one in this many uncontended acquisitions, at random; 0 to report none
+	 */
+	ContentionOnlyMode(int samplingInterval, Holds holds)
+	{
+		if (samplingInterval < 0)
+		{
+			throw new IllegalArgumentException("The sampling interval must not be negative.");
+		}
+		this.samplingInterval = samplingInterval;
+		this.holds = holds;
+	}
+
+	/**
+	 * @return true if the next acquisition should be reported even if it is uncontended
+	 */
+	boolean sample()
+	{
+		return sample(samplingInterval);
+	}
+
+	/**
+	 * @param lock
+	 *            the raw lock to acquire
+	 * @param hooked
+	 *            the lock to report to <code>hook</code>
+	 */
+	boolean tryLock(Lock lock, Lock hooked, LockHook hook)
+	{
+		if (tryFastPath(lock, hook))
+		{
+			return true;
+		}
+		if (hook == null)
+		{
+			return false;
+		}
+
+		hook.attemptingAcquisition(hooked);
+		if (lock.tryLock())
+		{
+			hook.lockAcquired(hooked);
+			holds.acquired(true);
+			return true;
+		}
+		return false;
+	}
+
+	boolean tryLock(Lock lock, long timeout, TimeUnit unit, Lock hooked, LockHook hook) throws InterruptedException
+	{
+		if (Thread.interrupted())
+		{
+			throw new InterruptedException();
+		}
+
+		if (tryFastPath(lock, hook))
+		{
+			return true;
+		}
+
+		if (hook != null)
+		{
+			hook.attemptingAcquisition(hooked);
+		}
+		if (!lock.tryLock(timeout, unit))
+		{
+			return false;
+		}
+		acquired(hooked, hook);
+		return true;
+	}
+
+	void lock(Lock lock, Lock hooked, LockHook hook)
+	{
+		if (!tryFastPath(lock, hook))
+		{
+			if (hook != null)
+			{
+				hook.attemptingAcquisition(hooked);
+			}
+			lock.lock();
+			acquired(hooked, hook);
+		}
+	}
+
+	void lockInterruptibly(Lock lock, Lock hooked, LockHook hook) throws InterruptedException
+	{
+		if (Thread.interrupted())
+		{
+			throw new InterruptedException();
+		}
+
+		if (!tryFastPath(lock, hook))
+		{
+			if (hook != null)
+			{
+				hook.attemptingAcquisition(hooked);
+			}
+			lock.lockInterruptibly();
+			acquired(hooked, hook);
+		}
+	}
+
+	void unlock(Lock lock, Lock hooked, LockHook hook)
+	{
+		// consult the holds while this thread is still the holder
+		boolean reported = holds.released();
+		lock.unlock();
+
+		if (reported && (hook != null))
+		{
+			hook.lockReleased(hooked);
+		}
+	}
+
+	/**
+	 * @return true if the lock was taken without waiting, and not selected for sampling
+	 */
+	private boolean tryFastPath(Lock lock, LockHook hook)
+	{
+		boolean sampled = (hook != null) && sample();
+		if (!sampled && lock.tryLock())
+		{
+			holds.acquired(false);
+			return true;
+		}
+		return false;
+	}
+
+	private void acquired(Lock hooked, LockHook hook)
+	{
+		if (hook == null)
+		{
+			holds.acquired(false);
+		}
+		else
+		{
+			hook.lockAcquired(hooked);
+			holds.acquired(true);
+		}
+	}
+
+	/**
+	 * @return true one time in <code>samplingInterval</code>, at random; never for 0
+	 */
+	static boolean sample(int samplingInterval)
+	{
+		switch (samplingInterval)
+		{
+			case 0:
+				return false;
+			case 1:
+				return true;
+			default:
+				return ThreadLocalRandom.current().nextInt(samplingInterval) == 0;
+		}
+	}
+}
@@ -0,0 +1,543 @@
+/*
+ * Copyright (c) 2011 HawkinsSoftware
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Byron Hawkins of HawkinsSoftware
+ */
+package org.hawkinssoftware.rns.core.lock;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+
+import org.hawkinssoftware.rns.core.moa.ExecutionPath;
+import org.hawkinssoftware.rns.core.role.TypeRole;
+import org.hawkinssoftware.rns.core.util.RNSUtils;
+
+/**
+ * Lock and semaphore hook which profiles contention, per lock identity and per acquiring <code>TypeRole</code> (the
+ * receiver role of the current message frame). For each pair it counts acquisitions and contended acquisitions, and
+ * keeps log2 histograms of the wait time (from <code>attemptingAcquisition</code> to acquisition) and of the hold time
+ * (from acquisition to release). An acquisition is contended when its wait reaches the contention threshold.
+ * <p>
+ * Each thread records into its own tables, guarded by a monitor which only a reader ever contends for, so recording
+ * costs a few uncontended operations. <code>snapshot()</code> merges the tables of all threads which have used the
+ * hook. The tables of a thread which has terminated are merged into a retired aggregate and dropped whenever a thread
+ * first uses the hook, or on <code>snapshot()</code> or <code>reset()</code>, so the number of tables follows the
+ * number of live threads. Locks and roles are held strongly until <code>reset()</code>, so a profiler should be
+ * installed for a bounded period or reset periodically.
+ * <p>
+ * The singleton <code>INSTANCE</code> can be named in <code>@HookSemaphores(hook = ContentionProfilingHook.class)</code>,
+ * and can be shared with <code>HookedLock.setHook()</code> so that both kinds of lock appear in one report.
+ * 
+ * @author Byron Hawkins
+ */
+public class ContentionProfilingHook implements LockHook, SemaphoreHook
+{
+	/**
+	 * Histogram of durations in nanoseconds, with one bucket per power of 2.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	public static class Histogram
+	{
+		private static final int BUCKET_COUNT = 64;
+
+		private final long[] buckets = new long[BUCKET_COUNT];
+		private long count;
+		private long total;
+		private long max;
+
+		void record(long nanos)
+		{
+			if (nanos < 0L)
+			{
+				nanos = 0L;
+			}
+			buckets[(nanos == 0L) ? 0 : (BUCKET_COUNT - Long.numberOfLeadingZeros(nanos))]++;
+			count++;
+			total += nanos;
+			if (nanos > max)
+			{
+				max = nanos;
+			}
+		}
+
+		void add(Histogram other)
+		{
+			for (int i = 0; i < BUCKET_COUNT; i++)
+			{
+				buckets[i] += other.buckets[i];
+			}
+			count += other.count;
+			total += other.total;
+			max = Math.max(max, other.max);
+		}
+
+		public long getCount()
+		{
+			return count;
+		}
+
+		public long getTotalNanos()
+		{
+			return total;
+		}
+
+		public long getMaxNanos()
+		{
+			return max;
+		}
+
+		public long getMeanNanos()
+		{
+			return (count == 0L) ? 0L : (total / count);
+		}
+
+		/**
+		 * @return the upper bound of the bucket containing the given percentile (0 to 100) of the recorded durations
+		 */
+		public long getPercentileNanos(double percentile)
+		{
+			long threshold = (long) Math.ceil(count * (percentile / 100.0));
+			long accumulated = 0L;
+			for (int i = 0; i < BUCKET_COUNT; i++)
+			{
+				accumulated += buckets[i];
+				if ((accumulated >= threshold) && (accumulated > 0L))
+				{
+					if (i == 0)
+					{
+						return 0L;
+					}
+					return (i == (BUCKET_COUNT - 1)) ? max : Math.min(max, (1L << i) - 1L);
+				}
+			}
+			return max;
+		}
+
+		/**
+		 * @return the number of durations in the bucket covering <code>[2^(index-1), 2^index)</code> nanoseconds, where
+		 *         bucket 0 holds zero durations
+		 */
+		public long getBucket(int index)
+		{
+			return buckets[index];
+		}
+	}
+
+	/**
+	 * Profile of one lock as acquired under one role.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	public static class LockProfile
+	{
+		public final Object lock;
+		public final TypeRole role;
+
+		private long acquisitionCount;
+		private long contentionCount;
+		private final Histogram waitTime = new Histogram();
+		private final Histogram holdTime = new Histogram();
+
+		LockProfile(Object lock, TypeRole role)
+		{
+			this.lock = lock;
+			this.role = role;
+		}
+
+		void add(LockProfile other)
+		{
+			acquisitionCount += other.acquisitionCount;
+			contentionCount += other.contentionCount;
+			waitTime.add(other.waitTime);
+			holdTime.add(other.holdTime);
+		}
+
+		public long getAcquisitionCount()
+		{
+			return acquisitionCount;
+		}
+
+		public long getContentionCount()
+		{
+			return contentionCount;
+		}
+
+		public Histogram getWaitTime()
+		{
+			return waitTime;
+		}
+
+		public Histogram getHoldTime()
+		{
+			return holdTime;
+		}
+
+		public String getLockDescription()
+		{
+			return RNSUtils.getPlainName(lock.getClass()) + "@" + Integer.toHexString(System.identityHashCode(lock));
+		}
+	}
+
+	/**
+	 * Merged profiles of all threads at one moment, ordered by total wait time, greatest first.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	public static class Snapshot
+	{
+		public final List<LockProfile> profiles;
+
+		Snapshot(List<LockProfile> profiles)
+		{
+			this.profiles = Collections.unmodifiableList(profiles);
+		}
+
+		public String report()
+		{
+			StringBuilder buffer = new StringBuilder();
+			buffer.append(String.format("%-40s %-40s %10s %10s %10s %10s %10s %10s%n", "lock", "role", "acquired", "contended", "wait-mean", "wait-p99",
+					"hold-mean", "hold-p99"));
+			for (LockProfile profile : profiles)
+			{
+				buffer.append(String.format("%-40s %-40s %10d %10d %10d %10d %10d %10d%n", profile.getLockDescription(), profile.role,
+						profile.acquisitionCount, profile.contentionCount, profile.waitTime.getMeanNanos(), profile.waitTime.getPercentileNanos(99.0),
+						profile.holdTime.getMeanNanos(), profile.holdTime.getPercentileNanos(99.0)));
+			}
+			return buffer.toString();
+		}
+	}
+
+	/**
+	 * The profile tables and pending acquisitions of one thread. Only the owning thread records, but it holds the
+	 * recorder's monitor while doing so, which lets <code>snapshot()</code> and <code>reset()</code> read it safely. The
+	 * owner is held weakly, so that a recorder can be retired once its thread has terminated.
+	 * <p>
+	 * The acquisition stack holds every lock the thread has acquired and not yet released, in order of acquisition,
+	 * plus at most one pending attempt on top. A pending attempt which is not resolved by the next event belongs to a
+	 * failed <code>tryLock()</code>, and is dropped.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	private static class Recorder
+	{
+		final WeakReference<Thread> owner;
+		final Map<Object, Map<TypeRole, LockProfile>> profiles = new IdentityHashMap<Object, Map<TypeRole, LockProfile>>();
+
+		Object[] locks = new Object[8];
+		TypeRole[] roles = new TypeRole[8];
+		long[] attemptTimes = new long[8];
+		long[] acquisitionTimes = new long[8];
+		int depth = 0;
+		boolean pending = false;
+
+		Recorder(Thread owner)
+		{
+			this.owner = new WeakReference<Thread>(owner);
+		}
+
+		boolean isRetired()
+		{
+			Thread thread = owner.get();
+			return (thread == null) || !thread.isAlive();
+		}
+
+		/**
+		 * Add all of the profiles of <code>other</code> to the profiles of this recorder.
+		 */
+		void addProfiles(Recorder other)
+		{
+			for (Map<TypeRole, LockProfile> profilesByRole : other.profiles.values())
+			{
+				for (LockProfile profile : profilesByRole.values())
+				{
+					getProfile(profile.lock, profile.role).add(profile);
+				}
+			}
+		}
+
+		LockProfile getProfile(Object lock, TypeRole role)
+		{
+			Map<TypeRole, LockProfile> profilesByRole = profiles.get(lock);
+			if (profilesByRole == null)
+			{
+				profilesByRole = new HashMap<TypeRole, LockProfile>();
+				profiles.put(lock, profilesByRole);
+			}
+			LockProfile profile = profilesByRole.get(role);
+			if (profile == null)
+			{
+				profile = new LockProfile(lock, role);
+				profilesByRole.put(role, profile);
+			}
+			return profile;
+		}
+
+		void push(Object lock, TypeRole role, long attemptTime)
+		{
+			if (depth == locks.length)
+			{
+				int capacity = depth * 2;
+				Object[] expandedLocks = new Object[capacity];
+				TypeRole[] expandedRoles = new TypeRole[capacity];
+				long[] expandedAttemptTimes = new long[capacity];
+				long[] expandedAcquisitionTimes = new long[capacity];
+				System.arraycopy(locks, 0, expandedLocks, 0, depth);
+				System.arraycopy(roles, 0, expandedRoles, 0, depth);
+				System.arraycopy(attemptTimes, 0, expandedAttemptTimes, 0, depth);
+				System.arraycopy(acquisitionTimes, 0, expandedAcquisitionTimes, 0, depth);
+				locks = expandedLocks;
+				roles = expandedRoles;
+				attemptTimes = expandedAttemptTimes;
+				acquisitionTimes = expandedAcquisitionTimes;
+			}
+			locks[depth] = lock;
+			roles[depth] = role;
+			attemptTimes[depth] = attemptTime;
+			depth++;
+		}
+
+		void remove(int index)
+		{
+			depth--;
+			System.arraycopy(locks, index + 1, locks, index, depth - index);
+			System.arraycopy(roles, index + 1, roles, index, depth - index);
+			System.arraycopy(attemptTimes, index + 1, attemptTimes, index, depth - index);
+			System.arraycopy(acquisitionTimes, index + 1, acquisitionTimes, index, depth - index);
+			locks[depth] = null;
+			roles[depth] = null;
+		}
+
+		void dropPendingAttempt()
+		{
+			if (pending)
+			{
+				remove(depth - 1);
+				pending = false;
+			}
+		}
+	}
+
+	public static final ContentionProfilingHook INSTANCE = new ContentionProfilingHook();
+
+	/**
+	 * Default minimum wait for an acquisition to count as contended: long enough to exclude the cost of an
+	 * uncontended acquisition and of the hook itself.
+	 */
+	public static final long DEFAULT_CONTENTION_THRESHOLD_NANOS = 2000L;
+
+	private final long contentionThresholdNanos;
+
+	private final List<Recorder> recorders = new CopyOnWriteArrayList<Recorder>();
+	// profiles of terminated threads; its monitor also serializes retirement
+	private final Recorder retired = new Recorder(null);
+
+	private final ThreadLocal<Recorder> recorder = new ThreadLocal<Recorder>() {
+		@Override
+		protected Recorder initialValue()
+		{
+			retireTerminatedThreads();
+			Recorder recorder = new Recorder(Thread.currentThread());
+			recorders.add(recorder);
+			return recorder;
+		}
+	};
+
+	public ContentionProfilingHook()
+	{
+		this(DEFAULT_CONTENTION_THRESHOLD_NANOS);
+	}
+
+	public ContentionProfilingHook(long contentionThresholdNanos)
+	{
+		this.contentionThresholdNanos = contentionThresholdNanos;
+	}
+
+	@Override
+	public void attemptingAcquisition(Lock lock)
+	{
+		attempting(lock);
+	}
+
+	@Override
+	public void lockAcquired(Lock lock)
+	{
+		acquired(lock);
+	}
+
+	@Override
+	public void lockReleased(Lock lock)
+	{
+		released(lock);
+	}
+
+	@Override
+	public void attemptingAcquisition(Object semaphore)
+	{
+		attempting(semaphore);
+	}
+
+	@Override
+	public void semaphoreAcquired(Object semaphore)
+	{
+		acquired(semaphore);
+	}
+
+	@Override
+	public void semaphoreReleased(Object semaphore)
+	{
+		released(semaphore);
+	}
+
+	public Snapshot snapshot()
+	{
+		retireTerminatedThreads();
+
+		Recorder merged = new Recorder(null);
+		for (Recorder threadRecorder : recorders)
+		{
+			synchronized (threadRecorder)
+			{
+				merged.addProfiles(threadRecorder);
+			}
+		}
+		synchronized (retired)
+		{
+			merged.addProfiles(retired);
+		}
+
+		List<LockProfile> profiles = new ArrayList<LockProfile>();
+		for (Map<TypeRole, LockProfile> profilesByRole : merged.profiles.values())
+		{
+			profiles.addAll(profilesByRole.values());
+		}
+		Collections.sort(profiles, new Comparator<LockProfile>() {
+			@Override
+			public int compare(LockProfile first, LockProfile second)
+			{
+				long difference = second.waitTime.total - first.waitTime.total;
+				return (difference < 0L) ? -1 : ((difference > 0L) ? 1 : 0);
+			}
+		});
+		return new Snapshot(profiles);
+	}
+
+	/**
+	 * Discard all recorded profiles. Locks currently held remain on their threads' acquisition stacks, so their
+	 * release is still recorded.
+	 */
+	public void reset()
+	{
+		retireTerminatedThreads();
+		for (Recorder threadRecorder : recorders)
+		{
+			synchronized (threadRecorder)
+			{
+				threadRecorder.profiles.clear();
+			}
+		}
+		synchronized (retired)
+		{
+			retired.profiles.clear();
+		}
+	}
+
+	/**
+	 * Merge the profiles of each terminated thread into the retired aggregate and drop its recorder. A terminated
+	 * thread can no longer record, so its profiles are complete; any acquisition it left pending is discarded.
+	 */
+	private void retireTerminatedThreads()
+	{
+		synchronized (retired)
+		{
+			for (Recorder threadRecorder : recorders)
+			{
+				if (threadRecorder.isRetired() && recorders.remove(threadRecorder))
+				{
+					synchronized (threadRecorder)
+					{
+						retired.addProfiles(threadRecorder);
+					}
+				}
+			}
+		}
+	}
+
+	private void attempting(Object lock)
+	{
+		TypeRole role = getAcquiringRole();
+		Recorder threadRecorder = recorder.get();
+		synchronized (threadRecorder)
+		{
+			threadRecorder.dropPendingAttempt();
+			threadRecorder.push(lock, role, System.nanoTime());
+			threadRecorder.pending = true;
+		}
+	}
+
+	private void acquired(Object lock)
+	{
+		long now = System.nanoTime();
+		Recorder threadRecorder = recorder.get();
+		synchronized (threadRecorder)
+		{
+			int top = threadRecorder.depth - 1;
+			if (!threadRecorder.pending || (threadRecorder.locks[top] != lock))
+			{
+				// no attempt was reported, so there is no wait to measure
+				threadRecorder.dropPendingAttempt();
+				threadRecorder.push(lock, getAcquiringRole(), now);
+				top = threadRecorder.depth - 1;
+			}
+			threadRecorder.pending = false;
+			threadRecorder.acquisitionTimes[top] = now;
+
+			long wait = now - threadRecorder.attemptTimes[top];
+			LockProfile profile = threadRecorder.getProfile(lock, threadRecorder.roles[top]);
+			profile.acquisitionCount++;
+			if (wait >= contentionThresholdNanos)
+			{
+				profile.contentionCount++;
+			}
+			profile.waitTime.record(wait);
+		}
+	}
+
+	private void released(Object lock)
+	{
+		long now = System.nanoTime();
+		Recorder threadRecorder = recorder.get();
+		synchronized (threadRecorder)
+		{
+			threadRecorder.dropPendingAttempt();
+			for (int i = threadRecorder.depth - 1; i >= 0; i--)
+			{
+				if (threadRecorder.locks[i] == lock)
+				{
+					threadRecorder.getProfile(lock, threadRecorder.roles[i]).holdTime.record(now - threadRecorder.acquisitionTimes[i]);
+					threadRecorder.remove(i);
+					return;
+				}
+			}
+		}
+	}
+
+	private TypeRole getAcquiringRole()
+	{
+		TypeRole role = ExecutionPath.getReceiverRole();
+		return (role == null) ? TypeRole.NONE : role;
+	}
+}
@@ -14,11 +14,10 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.List;
 
 import org.hawkinssoftware.rns.core.publication.InvocationConstraint;
 
@@ -48,6 +47,11 @@ public @interface HookSemaphores
 	 * The instrumentation of the enclosing <code>HookSempahores</code> annotation actually goes to this
 	 * <code>Relay</code>, which finds the <code>SemaphoreHook</code> instance to invoke. The <code>Relay</code> also
 	 * maintains a stack to simplify entry and exit of <code>synchronized</code> methods.
+	 * <p>
+	 * The hook of each hooked class is bound once, through a <code>ClassValue</code>, to a <code>MethodHandle</code> on
+	 * the <code>instance()</code> field or method; the hook instance itself is cached in the binding until
+	 * <code>resetHook()</code>. The per-thread method entry stack is a pair of reusable arrays, so the relay methods
+	 * allocate nothing in the steady state.
 	 * 
 	 * @author Byron Hawkins
 	 */
@@ -55,55 +59,96 @@ public @interface HookSemaphores
 	public static class Relay
 	{
 		/**
-		 * Maintains a map of method entry frames per thread, and also caches the <code>SemaphoreHook</code> instance.
+		 * A hook instance as read in one generation, published as a whole so that a hook is never paired with the
+		 * stamp of a later generation.
 		 * 
 		 * @author Byron Hawkins
 		 */
-		private static class ThreadContext
+		private static class ResolvedHook
 		{
-			final List<SynchronizedMethodEntry> methodEntryStack = new ArrayList<SynchronizedMethodEntry>();
-			SemaphoreHook hook = null;
+			final int generation;
+			final SemaphoreHook hook;
 
-			SemaphoreHook getHook(Class<?> hookedType) throws IllegalAccessException, InvocationTargetException, NoSuchFieldException, NoSuchMethodException
+			ResolvedHook(int generation, SemaphoreHook hook)
 			{
-				if (hook == null)
-				{
-					HookSemaphores annotation = hookedType.getAnnotation(HookSemaphores.class);
+				this.generation = generation;
+				this.hook = hook;
+			}
+		}
+
+		/**
+		 * The hook of one hooked class.
+		 * 
+		 * @author Byron Hawkins
+		 */
+		private static class HookBinding
+		{
+			final MethodHandle instanceGetter;
+
+			volatile ResolvedHook resolved = null;
 
-					if (annotation.instance().endsWith("()"))
+			HookBinding(MethodHandle instanceGetter)
+			{
+				this.instanceGetter = instanceGetter;
+			}
+
+			SemaphoreHook getHook()
+			{
+				int currentGeneration = hookGeneration;
+				ResolvedHook current = resolved;
+				if ((current == null) || (current.generation != currentGeneration))
+				{
+					try
 					{
-						Method staticGetter = annotation.hook().getMethod(annotation.instance().substring(0, annotation.instance().length() - 2));
-						staticGetter.setAccessible(true);
-						hook = (SemaphoreHook) staticGetter.invoke(null);
+						current = new ResolvedHook(currentGeneration, (SemaphoreHook) instanceGetter.invoke());
 					}
-					else
+					catch (Throwable t)
 					{
-						Field instanceField = annotation.hook().getField(annotation.instance());
-						instanceField.setAccessible(true);
-						hook = (SemaphoreHook) instanceField.get(null);
+						throw new IllegalStateException("Failed to get the SemaphoreHook instance", t);
 					}
+					resolved = current;
 				}
-				return hook;
+				return current.hook;
 			}
 		}
 
 		/**
-		 * Method entry frame used in the enclosing <code>Relay</code>'s <code>ThreadContext.methodEntryStack</code>.
+		 * Stack of <code>synchronized</code> method entries on one thread, in parallel arrays which are reused for the
+		 * life of the thread.
 		 * 
 		 * @author Byron Hawkins
 		 */
-		private static class SynchronizedMethodEntry
+		private static class ThreadContext
 		{
-			final Class<?> hookedType;
-			final Object semaphore;
+			Class<?>[] hookedTypes = new Class<?>[16];
+			Object[] semaphores = new Object[16];
+			int depth = 0;
 
-			public SynchronizedMethodEntry(Class<?> hookedType, Object semaphore)
+			void push(Class<?> hookedType, Object semaphore)
 			{
-				this.hookedType = hookedType;
-				this.semaphore = semaphore;
+				if (depth == hookedTypes.length)
+				{
+					Class<?>[] expandedTypes = new Class<?>[depth * 2];
+					Object[] expandedSemaphores = new Object[depth * 2];
+					System.arraycopy(hookedTypes, 0, expandedTypes, 0, depth);
+					System.arraycopy(semaphores, 0, expandedSemaphores, 0, depth);
+					hookedTypes = expandedTypes;
+					semaphores = expandedSemaphores;
+				}
+				hookedTypes[depth] = hookedType;
+				semaphores[depth] = semaphore;
+				depth++;
 			}
 		}
 
+		private static final ClassValue<HookBinding> HOOKS = new ClassValue<HookBinding>() {
+			@Override
+			protected HookBinding computeValue(Class<?> hookedType)
+			{
+				return new HookBinding(findInstanceGetter(hookedType));
+			}
+		};
+
 		private static final ThreadLocal<ThreadContext> CONTEXT = new ThreadLocal<ThreadContext>() {
 			protected ThreadContext initialValue()
 			{
@@ -113,26 +158,36 @@ public @interface HookSemaphores
 
 		private static final boolean enabled = System.getProperty("disable-access-validation") == null;
 
+		private static volatile int hookGeneration = 0;
+
+		/**
+		 * Discard the cached hook instances, so that each is read again from its <code>instance()</code> on next use.
+		 * <p>
+		 * The reset is global: every thread sees the new hook instances on its next use of the relay.
+		 */
 		public static void resetHook()
 		{
-			CONTEXT.get().hook = null;
+			synchronized (Relay.class)
+			{
+				hookGeneration++;
+			}
 		}
 
 		public static void methodEntry(Class<?> hookedType, Object semaphore)
-				throws IllegalAccessException, InvocationTargetException, NoSuchFieldException, NoSuchMethodException
 		{
 			if (!enabled)
 			{
 				return;
 			}
 
-			CONTEXT.get().methodEntryStack.add(new SynchronizedMethodEntry(hookedType, semaphore));
+			CONTEXT.get().push(hookedType, semaphore);
 
-			attemptingAcquisition(hookedType, semaphore);
-			semaphoreAcquired(hookedType, semaphore);
+			SemaphoreHook hook = getHook(hookedType);
+			hook.attemptingAcquisition(semaphore);
+			hook.semaphoreAcquired(semaphore);
 		}
 
-		public static void methodExit() throws IllegalAccessException, InvocationTargetException, NoSuchFieldException, NoSuchMethodException
+		public static void methodExit()
 		{
 			if (!enabled)
 			{
@@ -140,42 +195,78 @@ public @interface HookSemaphores
 			}
 
 			ThreadContext context = CONTEXT.get();
-			SynchronizedMethodEntry pop = context.methodEntryStack.remove(context.methodEntryStack.size() - 1);
+			context.depth--;
+			Class<?> hookedType = context.hookedTypes[context.depth];
+			Object semaphore = context.semaphores[context.depth];
+			context.hookedTypes[context.depth] = null;
+			context.semaphores[context.depth] = null;
 
-			semaphoreReleased(pop.hookedType, pop.semaphore);
+			getHook(hookedType).semaphoreReleased(semaphore);
 		}
 
 		public static void attemptingAcquisition(Class<?> hookedType, Object semaphore)
-				throws IllegalAccessException, InvocationTargetException, NoSuchFieldException, NoSuchMethodException
 		{
 			if (!enabled)
 			{
 				return;
 			}
 
-			CONTEXT.get().getHook(hookedType).attemptingAcquisition(semaphore);
+			getHook(hookedType).attemptingAcquisition(semaphore);
 		}
 
 		public static void semaphoreAcquired(Class<?> hookedType, Object semaphore)
-				throws IllegalAccessException, InvocationTargetException, NoSuchFieldException, NoSuchMethodException
 		{
 			if (!enabled)
 			{
 				return;
 			}
 
-			CONTEXT.get().getHook(hookedType).semaphoreAcquired(semaphore);
+			getHook(hookedType).semaphoreAcquired(semaphore);
 		}
 
 		public static void semaphoreReleased(Class<?> hookedType, Object semaphore)
-				throws IllegalAccessException, InvocationTargetException, NoSuchFieldException, NoSuchMethodException
 		{
 			if (!enabled)
 			{
 				return;
 			}
 
-			CONTEXT.get().getHook(hookedType).semaphoreReleased(semaphore);
+			getHook(hookedType).semaphoreReleased(semaphore);
+		}
+
+		private static SemaphoreHook getHook(Class<?> hookedType)
+		{
+			return HOOKS.get(hookedType).getHook();
+		}
+
+		private static MethodHandle findInstanceGetter(Class<?> hookedType)
+		{
+			HookSemaphores annotation = hookedType.getAnnotation(HookSemaphores.class);
+			if (annotation == null)
+			{
+				throw new IllegalStateException("Type " + hookedType.getName() + " is not annotated with @" + HookSemaphores.class.getSimpleName());
+			}
+
+			try
+			{
+				if (annotation.instance().endsWith("()"))
+				{
+					Method staticGetter = annotation.hook().getMethod(annotation.instance().substring(0, annotation.instance().length() - 2));
+					staticGetter.setAccessible(true);
+					return MethodHandles.lookup().unreflect(staticGetter);
+				}
+				else
+				{
+					Field instanceField = annotation.hook().getField(annotation.instance());
+					instanceField.setAccessible(true);
+					return MethodHandles.lookup().unreflectGetter(instanceField);
+				}
+			}
+			catch (Exception e)
+			{
+				throw new IllegalStateException("Failed to find the SemaphoreHook instance " + annotation.hook().getName() + "." + annotation.instance()
+						+ " for hooked type " + hookedType.getName(), e);
+			}
 		}
 	}
 }
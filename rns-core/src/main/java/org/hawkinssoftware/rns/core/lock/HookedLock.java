@@ -16,7 +16,8 @@ import java.util.concurrent.locks.Lock;
 
 /**
  * A simple wrapper for a <code>Lock</code> which optionally notifies a <code>LockHook</code> before and after every
- * lock operation.
+ * lock operation. In contention-only mode (see <code>setContentionOnly()</code>) it notifies the hook only of
+ * acquisitions which find the lock contended, plus a sample of the uncontended ones.
  * 
  * @param <LockType>
  *            the implementation of <code>Lock</code> contained in this wrapper
@@ -27,6 +28,7 @@ public class HookedLock<LockType extends Lock> implements Lock
 	private final LockType lock;
 
 	private volatile LockHook hook = null;
+	private volatile ContentionOnlyMode contentionOnlyMode = null;
 
 	public HookedLock(LockType lock)
 	{
@@ -39,6 +41,24 @@ public class HookedLock<LockType extends Lock> implements Lock
 		this.hook = hook;
 	}
 
+	/**
+	 * Notify the hook only of acquisitions which cannot take the lock immediately, plus one in
+	 * <code>samplingInterval</code> of those which can (at random; 0 for none), and only of the releases of notified
+	 * acquisitions. The wrapped lock must be exclusive, and the mode may only be changed while the lock is not held.
+	 */
+	public void setContentionOnly(int samplingInterval)
+	{
+		contentionOnlyMode = new ContentionOnlyMode(samplingInterval, ContentionOnlyMode.Holds.exclusive());
+	}
+
+	/**
+	 * Return to notifying the hook of every lock operation. The mode may only be changed while the lock is not held.
+	 */
+	public void clearContentionOnly()
+	{
+		contentionOnlyMode = null;
+	}
+
 	public LockType getLock()
 	{
 		return lock;
@@ -47,6 +67,12 @@ public class HookedLock<LockType extends Lock> implements Lock
 	@Override
 	public boolean tryLock()
 	{
+		ContentionOnlyMode mode = contentionOnlyMode;
+		if (mode != null)
+		{
+			return mode.tryLock(lock, this, hook);
+		}
+
 		if (hook != null)
 		{
 			hook.attemptingAcquisition(this);
@@ -65,6 +91,12 @@ public class HookedLock<LockType extends Lock> implements Lock
 	@Override
 	public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException
 	{
+		ContentionOnlyMode mode = contentionOnlyMode;
+		if (mode != null)
+		{
+			return mode.tryLock(lock, timeout, unit, this, hook);
+		}
+
 		if (hook != null)
 		{
 			hook.attemptingAcquisition(this);
@@ -83,6 +115,13 @@ public class HookedLock<LockType extends Lock> implements Lock
 	@Override
 	public void lock()
 	{
+		ContentionOnlyMode mode = contentionOnlyMode;
+		if (mode != null)
+		{
+			mode.lock(lock, this, hook);
+			return;
+		}
+
 		if (hook != null)
 		{
 			hook.attemptingAcquisition(this);
@@ -99,6 +138,13 @@ public class HookedLock<LockType extends Lock> implements Lock
 	@Override
 	public void lockInterruptibly() throws InterruptedException
 	{
+		ContentionOnlyMode mode = contentionOnlyMode;
+		if (mode != null)
+		{
+			mode.lockInterruptibly(lock, this, hook);
+			return;
+		}
+
 		if (hook != null)
 		{
 			hook.attemptingAcquisition(this);
@@ -115,6 +161,13 @@ public class HookedLock<LockType extends Lock> implements Lock
 	@Override
 	public void unlock()
 	{
+		ContentionOnlyMode mode = contentionOnlyMode;
+		if (mode != null)
+		{
+			mode.unlock(lock, this, hook);
+			return;
+		}
+
 		lock.unlock();
 
 		if (hook != null)
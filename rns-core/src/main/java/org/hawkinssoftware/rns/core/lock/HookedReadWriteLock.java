@@ -11,6 +11,7 @@
 package org.hawkinssoftware.rns.core.lock;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
@@ -20,6 +21,35 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  */
 public class HookedReadWriteLock extends ReentrantReadWriteLock
 {
+	/**
+	 * The unhooked read lock of a <code>HookedReadWriteLock</code>, sharing its state, through which the
+	 * contention-only mode acquires and releases.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	@SuppressWarnings("serial")
+	private static class RawReadLock extends ReadLock
+	{
+		RawReadLock(ReentrantReadWriteLock lock)
+		{
+			super(lock);
+		}
+	}
+
+	/**
+	 * The unhooked write lock of a <code>HookedReadWriteLock</code>, sharing its state, through which the
+	 * contention-only mode acquires and releases.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	@SuppressWarnings("serial")
+	private static class RawWriteLock extends WriteLock
+	{
+		RawWriteLock(ReentrantReadWriteLock lock)
+		{
+			super(lock);
+		}
+	}
 	
 	/**
 	 * DOC comment task awaits.
@@ -30,6 +60,9 @@ public class HookedReadWriteLock extends ReentrantReadWriteLock
 	{
 		// TODO: is volatile ok, or should this be synchronized?
 		volatile LockHook hook = null;
+		volatile ContentionOnlyMode contentionOnlyMode = null;
+
+		private final Lock raw = new RawReadLock(HookedReadWriteLock.this);
 
 		private HookedReadLock()
 		{
@@ -39,6 +72,12 @@ public class HookedReadWriteLock extends ReentrantReadWriteLock
 		@Override
 		public boolean tryLock()
 		{
+			ContentionOnlyMode mode = contentionOnlyMode;
+			if (mode != null)
+			{
+				return mode.tryLock(raw, this, hook);
+			}
+
 			if (hook != null)
 			{
 				hook.attemptingAcquisition(this);
@@ -57,6 +96,12 @@ public class HookedReadWriteLock extends ReentrantReadWriteLock
 		@Override
 		public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException
 		{
+			ContentionOnlyMode mode = contentionOnlyMode;
+			if (mode != null)
+			{
+				return mode.tryLock(raw, timeout, unit, this, hook);
+			}
+
 			if (hook != null)
 			{
 				hook.attemptingAcquisition(this);
@@ -75,6 +120,13 @@ public class HookedReadWriteLock extends ReentrantReadWriteLock
 		@Override
 		public void lock()
 		{
+			ContentionOnlyMode mode = contentionOnlyMode;
+			if (mode != null)
+			{
+				mode.lock(raw, this, hook);
+				return;
+			}
+
 			if (hook != null)
 			{
 				hook.attemptingAcquisition(this);
@@ -91,6 +143,13 @@ public class HookedReadWriteLock extends ReentrantReadWriteLock
 		@Override
 		public void lockInterruptibly() throws InterruptedException
 		{
+			ContentionOnlyMode mode = contentionOnlyMode;
+			if (mode != null)
+			{
+				mode.lockInterruptibly(raw, this, hook);
+				return;
+			}
+
 			if (hook != null)
 			{
 				hook.attemptingAcquisition(this);
@@ -107,6 +166,13 @@ public class HookedReadWriteLock extends ReentrantReadWriteLock
 		@Override
 		public void unlock()
 		{
+			ContentionOnlyMode mode = contentionOnlyMode;
+			if (mode != null)
+			{
+				mode.unlock(raw, this, hook);
+				return;
+			}
+
 			super.unlock();
 
 			if (hook != null)
@@ -125,6 +191,9 @@ public class HookedReadWriteLock extends ReentrantReadWriteLock
 	{
 		// TODO: is volatile ok, or should this be synchronized?
 		volatile LockHook hook = null;
+		volatile ContentionOnlyMode contentionOnlyMode = null;
+
+		private final Lock raw = new RawWriteLock(HookedReadWriteLock.this);
 
 		private HookedWriteLock()
 		{
@@ -134,6 +203,12 @@ public class HookedReadWriteLock extends ReentrantReadWriteLock
 		@Override
 		public boolean tryLock()
 		{
+			ContentionOnlyMode mode = contentionOnlyMode;
+			if (mode != null)
+			{
+				return mode.tryLock(raw, this, hook);
+			}
+
 			if (hook != null)
 			{
 				hook.attemptingAcquisition(this);
@@ -152,6 +227,12 @@ public class HookedReadWriteLock extends ReentrantReadWriteLock
 		@Override
 		public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException
 		{
+			ContentionOnlyMode mode = contentionOnlyMode;
+			if (mode != null)
+			{
+				return mode.tryLock(raw, timeout, unit, this, hook);
+			}
+
 			if (hook != null)
 			{
 				hook.attemptingAcquisition(this);
@@ -170,6 +251,13 @@ public class HookedReadWriteLock extends ReentrantReadWriteLock
 		@Override
 		public void lock()
 		{
+			ContentionOnlyMode mode = contentionOnlyMode;
+			if (mode != null)
+			{
+				mode.lock(raw, this, hook);
+				return;
+			}
+
 			if (hook != null)
 			{
 				hook.attemptingAcquisition(this);
@@ -186,6 +274,13 @@ public class HookedReadWriteLock extends ReentrantReadWriteLock
 		@Override
 		public void lockInterruptibly() throws InterruptedException
 		{
+			ContentionOnlyMode mode = contentionOnlyMode;
+			if (mode != null)
+			{
+				mode.lockInterruptibly(raw, this, hook);
+				return;
+			}
+
 			if (hook != null)
 			{
 				hook.attemptingAcquisition(this);
@@ -202,6 +297,13 @@ public class HookedReadWriteLock extends ReentrantReadWriteLock
 		@Override
 		public void unlock()
 		{
+			ContentionOnlyMode mode = contentionOnlyMode;
+			if (mode != null)
+			{
+				mode.unlock(raw, this, hook);
+				return;
+			}
+
 			super.unlock();
 
 			if (hook != null)
@@ -241,4 +343,26 @@ public class HookedReadWriteLock extends ReentrantReadWriteLock
 		readLock.hook = hook;
 		writeLock.hook = hook;
 	}
+
+	/**
+	 * Notify the hooks only of acquisitions which cannot take the lock immediately, plus one in
+	 * <code>samplingInterval</code> of those which can (at random; 0 for none), and only of the releases of notified
+	 * acquisitions. The mode may only be changed while neither lock is held.
+	 * 
+	 * @see HookedLock#setContentionOnly(int)
+	 */
+	public void setContentionOnly(int samplingInterval)
+	{
+		readLock.contentionOnlyMode = new ContentionOnlyMode(samplingInterval, ContentionOnlyMode.Holds.shared(this));
+		writeLock.contentionOnlyMode = new ContentionOnlyMode(samplingInterval, ContentionOnlyMode.Holds.exclusive());
+	}
+
+	/**
+	 * Return to notifying the hooks of every lock operation. The mode may only be changed while neither lock is held.
+	 */
+	public void clearContentionOnly()
+	{
+		readLock.contentionOnlyMode = null;
+		writeLock.contentionOnlyMode = null;
+	}
 }
@@ -0,0 +1,458 @@
+/*
+ * Copyright (c) 2011 HawkinsSoftware
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Byron Hawkins of HawkinsSoftware
+ */
+package org.hawkinssoftware.rns.core.lock;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.StampedLock;
+
+import org.hawkinssoftware.rns.core.log.Log;
+import org.hawkinssoftware.rns.core.util.RNSLogging.Tag;
+
+/**
+ * A wrapper for a <code>StampedLock</code> which optionally notifies a <code>LockHook</code> of its write and read
+ * acquisitions and releases, identifying each mode by the hooked <code>Lock</code> view returned from
+ * <code>asWriteLock()</code> or <code>asReadLock()</code>. If the hook is a <code>StampedLockHook</code>, it is also
+ * notified of every optimistic read that fails validation. Optimistic reads which validate successfully cost nothing
+ * beyond the raw <code>StampedLock</code> unless an optimistic sampling interval is set, in which case a random sample
+ * of them is reported as well.
+ * 
+ * @author Byron Hawkins
+ */
+public class HookedStampedLock
+{
+	/**
+	 * Mode of a valid stamp, as required to report a conversion.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	private enum StampMode
+	{
+		WRITE,
+		READ,
+		OPTIMISTIC,
+		/**
+		 * A read or optimistic stamp, which this JVM offers no way to tell apart. The conversion proceeds regardless,
+		 * but a release which it may imply is not reported.
+		 */
+		READ_OR_OPTIMISTIC;
+	}
+
+	/**
+	 * Distinguishes a read stamp from an optimistic stamp, which <code>StampedLock</code> of Java 8 offers no way to
+	 * do. From Java 10 the public <code>StampedLock.isReadLockStamp()</code> is used; otherwise a stamp is classified
+	 * by the bits of its reader count, but only if a probe at class initialization confirms that they are clear in an
+	 * optimistic stamp and set in a read stamp. Where neither is possible, stamps are left unclassified and a warning
+	 * is logged once, since the hook reports are then incomplete.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	private static class StampClassifier
+	{
+		// the reader count occupies the low-order bits of a stamp in the layout of Java 8
+		private static final long READER_BITS = 0xFFL;
+
+		private static final MethodHandle IS_READ_LOCK_STAMP = findIsReadLockStamp();
+		private static final boolean READER_BITS_VERIFIED = (IS_READ_LOCK_STAMP == null) && verifyReaderBits();
+
+		private static volatile boolean warned = false;
+
+		static StampMode classify(long stamp)
+		{
+			if (IS_READ_LOCK_STAMP != null)
+			{
+				try
+				{
+					return ((boolean) IS_READ_LOCK_STAMP.invokeExact(stamp)) ? StampMode.READ : StampMode.OPTIMISTIC;
+				}
+				catch (Throwable t)
+				{
+					warnOnce(t);
+					return StampMode.READ_OR_OPTIMISTIC;
+				}
+			}
+			if (!READER_BITS_VERIFIED)
+			{
+				warnOnce(null);
+				return StampMode.READ_OR_OPTIMISTIC;
+			}
+			return ((stamp & READER_BITS) != 0L) ? StampMode.READ : StampMode.OPTIMISTIC;
+		}
+
+		private static void warnOnce(Throwable t)
+		{
+			if (!warned)
+			{
+				warned = true;
+				String message = "Cannot distinguish read stamps from optimistic stamps of the StampedLock in this JVM; releases implied by stamp conversions will not be reported to the lock hook";
+				if (t == null)
+				{
+					Log.out(Tag.WARNING, message);
+				}
+				else
+				{
+					Log.out(Tag.WARNING, t, message);
+				}
+			}
+		}
+
+		private static MethodHandle findIsReadLockStamp()
+		{
+			try
+			{
+				return MethodHandles.publicLookup().findStatic(StampedLock.class, "isReadLockStamp", MethodType.methodType(boolean.class, long.class));
+			}
+			catch (NoSuchMethodException e)
+			{
+				return null;
+			}
+			catch (IllegalAccessException e)
+			{
+				return null;
+			}
+		}
+
+		private static boolean verifyReaderBits()
+		{
+			StampedLock probe = new StampedLock();
+			long optimistic = probe.tryOptimisticRead();
+			long read = probe.readLock();
+			long nestedRead = probe.readLock();
+			probe.unlockRead(nestedRead);
+			probe.unlockRead(read);
+			return (optimistic != 0L) && ((optimistic & READER_BITS) == 0L) && ((read & READER_BITS) != 0L) && ((nestedRead & READER_BITS) != 0L);
+		}
+	}
+
+	private final StampedLock lock;
+	private final HookedLock<Lock> writeView;
+	private final HookedLock<Lock> readView;
+
+	private volatile LockHook hook = null;
+	private volatile StampedLockHook stampedHook = null;
+	private volatile int optimisticSamplingInterval = 0;
+
+	public HookedStampedLock()
+	{
+		this(new StampedLock());
+	}
+
+	public HookedStampedLock(StampedLock lock)
+	{
+		this.lock = lock;
+		writeView = new HookedLock<Lock>(lock.asWriteLock());
+		readView = new HookedLock<Lock>(lock.asReadLock());
+	}
+
+	/**
+	 * Also applies to the views returned from <code>asWriteLock()</code> and <code>asReadLock()</code>.
+	 */
+	public void setHook(LockHook hook)
+	{
+		this.hook = hook;
+		stampedHook = (hook instanceof StampedLockHook) ? (StampedLockHook) hook : null;
+		writeView.setHook(hook);
+		readView.setHook(hook);
+	}
+
+	/**
+	 * Report one in <code>samplingInterval</code> optimistic reads, and independently one in
+	 * <code>samplingInterval</code> successful validations, at random; 0 (the default) to report neither.
+	 */
+	public void setOptimisticSampling(int samplingInterval)
+	{
+		if (samplingInterval < 0)
+		{
+			throw new IllegalArgumentException("The sampling interval must not be negative.");
+		}
+		optimisticSamplingInterval = samplingInterval;
+	}
+
+	public StampedLock getLock()
+	{
+		return lock;
+	}
+
+	public long writeLock()
+	{
+		attempting(writeView);
+		return acquired(writeView, lock.writeLock());
+	}
+
+	public long tryWriteLock()
+	{
+		attempting(writeView);
+		return acquired(writeView, lock.tryWriteLock());
+	}
+
+	public long tryWriteLock(long time, TimeUnit unit) throws InterruptedException
+	{
+		attempting(writeView);
+		return acquired(writeView, lock.tryWriteLock(time, unit));
+	}
+
+	public long writeLockInterruptibly() throws InterruptedException
+	{
+		attempting(writeView);
+		return acquired(writeView, lock.writeLockInterruptibly());
+	}
+
+	public long readLock()
+	{
+		attempting(readView);
+		return acquired(readView, lock.readLock());
+	}
+
+	public long tryReadLock()
+	{
+		attempting(readView);
+		return acquired(readView, lock.tryReadLock());
+	}
+
+	public long tryReadLock(long time, TimeUnit unit) throws InterruptedException
+	{
+		attempting(readView);
+		return acquired(readView, lock.tryReadLock(time, unit));
+	}
+
+	public long readLockInterruptibly() throws InterruptedException
+	{
+		attempting(readView);
+		return acquired(readView, lock.readLockInterruptibly());
+	}
+
+	public long tryOptimisticRead()
+	{
+		long stamp = lock.tryOptimisticRead();
+
+		if (optimisticSamplingInterval != 0)
+		{
+			StampedLockHook currentHook = stampedHook;
+			if ((currentHook != null) && ContentionOnlyMode.sample(optimisticSamplingInterval))
+			{
+				currentHook.optimisticReadStarted(readView, stamp);
+			}
+		}
+
+		return stamp;
+	}
+
+	/**
+	 * Validate a stamp, reporting a failure to the <code>StampedLockHook</code> (if any) as an optimistic validation
+	 * failure, since a stamp which is still held can not fail.
+	 */
+	public boolean validate(long stamp)
+	{
+		boolean valid = lock.validate(stamp);
+
+		if (!valid)
+		{
+			StampedLockHook currentHook = stampedHook;
+			if (currentHook != null)
+			{
+				currentHook.optimisticValidationFailed(readView, stamp);
+			}
+		}
+		else if (optimisticSamplingInterval != 0)
+		{
+			StampedLockHook currentHook = stampedHook;
+			if ((currentHook != null) && ContentionOnlyMode.sample(optimisticSamplingInterval))
+			{
+				currentHook.optimisticValidationSucceeded(readView, stamp);
+			}
+		}
+
+		return valid;
+	}
+
+	public void unlockWrite(long stamp)
+	{
+		lock.unlockWrite(stamp);
+		released(writeView);
+	}
+
+	public void unlockRead(long stamp)
+	{
+		lock.unlockRead(stamp);
+		released(readView);
+	}
+
+	public void unlock(long stamp)
+	{
+		// only the write stamp can be valid while the write lock is held
+		boolean write = lock.isWriteLocked();
+		lock.unlock(stamp);
+		released(write ? writeView : readView);
+	}
+
+	public boolean tryUnlockWrite()
+	{
+		boolean result = lock.tryUnlockWrite();
+		if (result)
+		{
+			released(writeView);
+		}
+		return result;
+	}
+
+	public boolean tryUnlockRead()
+	{
+		boolean result = lock.tryUnlockRead();
+		if (result)
+		{
+			released(readView);
+		}
+		return result;
+	}
+
+	public long tryConvertToWriteLock(long stamp)
+	{
+		StampMode mode = getMode(stamp);
+		if (mode == StampMode.WRITE)
+		{
+			return lock.tryConvertToWriteLock(stamp);
+		}
+
+		attempting(writeView);
+		long converted = lock.tryConvertToWriteLock(stamp);
+		if ((converted != 0L) && (mode == StampMode.READ))
+		{
+			released(readView);
+		}
+		return acquired(writeView, converted);
+	}
+
+	public long tryConvertToReadLock(long stamp)
+	{
+		StampMode mode = getMode(stamp);
+		if (mode == StampMode.READ)
+		{
+			return lock.tryConvertToReadLock(stamp);
+		}
+		if (mode == StampMode.READ_OR_OPTIMISTIC)
+		{
+			// a read stamp is returned as is, so only a different stamp is a new read acquisition
+			long converted = lock.tryConvertToReadLock(stamp);
+			if ((converted != 0L) && (converted != stamp))
+			{
+				attempting(readView);
+				acquired(readView, converted);
+			}
+			return converted;
+		}
+
+		attempting(readView);
+		long converted = lock.tryConvertToReadLock(stamp);
+		if ((converted != 0L) && (mode == StampMode.WRITE))
+		{
+			released(writeView);
+		}
+		return acquired(readView, converted);
+	}
+
+	public long tryConvertToOptimisticRead(long stamp)
+	{
+		StampMode mode = getMode(stamp);
+		long converted = lock.tryConvertToOptimisticRead(stamp);
+		if (converted != 0L)
+		{
+			switch (mode)
+			{
+				case WRITE:
+					released(writeView);
+					break;
+				case READ:
+					released(readView);
+					break;
+				case OPTIMISTIC:
+				case READ_OR_OPTIMISTIC:
+					break;
+			}
+		}
+		return converted;
+	}
+
+	public boolean isWriteLocked()
+	{
+		return lock.isWriteLocked();
+	}
+
+	public boolean isReadLocked()
+	{
+		return lock.isReadLocked();
+	}
+
+	public int getReadLockCount()
+	{
+		return lock.getReadLockCount();
+	}
+
+	/**
+	 * @return a hooked view of the write lock, which is also the <code>Lock</code> identifying write acquisitions of
+	 *         this lock to the hook
+	 */
+	public Lock asWriteLock()
+	{
+		return writeView;
+	}
+
+	/**
+	 * @return a hooked view of the read lock, which is also the <code>Lock</code> identifying read and optimistic
+	 *         acquisitions of this lock to the hook
+	 */
+	public Lock asReadLock()
+	{
+		return readView;
+	}
+
+	private StampMode getMode(long stamp)
+	{
+		if (lock.isWriteLocked() && lock.validate(stamp))
+		{
+			return StampMode.WRITE;
+		}
+		return StampClassifier.classify(stamp);
+	}
+
+	private void attempting(Lock view)
+	{
+		LockHook currentHook = hook;
+		if (currentHook != null)
+		{
+			currentHook.attemptingAcquisition(view);
+		}
+	}
+
+	private long acquired(Lock view, long stamp)
+	{
+		if (stamp != 0L)
+		{
+			LockHook currentHook = hook;
+			if (currentHook != null)
+			{
+				currentHook.lockAcquired(view);
+			}
+		}
+		return stamp;
+	}
+
+	private void released(Lock view)
+	{
+		LockHook currentHook = hook;
+		if (currentHook != null)
+		{
+			currentHook.lockReleased(view);
+		}
+	}
+}
@@ -0,0 +1,496 @@
+/*
+ * Copyright (c) 2011 HawkinsSoftware
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Byron Hawkins of HawkinsSoftware
+ */
+package org.hawkinssoftware.rns.core.lock;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+
+import org.hawkinssoftware.rns.core.log.Log;
+import org.hawkinssoftware.rns.core.moa.ExecutionPath;
+import org.hawkinssoftware.rns.core.moa.MessageStackFrame;
+import org.hawkinssoftware.rns.core.moa.MessageStackSnapshot;
+import org.hawkinssoftware.rns.core.util.RNSLogging.Tag;
+import org.hawkinssoftware.rns.core.util.RNSUtils;
+
+/**
+ * Lock and semaphore hook which maintains a global lock-order graph, in the style of the Linux kernel's lockdep, and
+ * reports any acquisition which could deadlock. Each thread tracks the locks it holds; when it attempts to acquire a
+ * lock while holding others, the edge (most recently acquired held lock -> acquiring lock) is added to the graph. A
+ * new edge which closes a cycle means that two or more threads could each hold one lock of the cycle while waiting for
+ * the next, so it is reported as a <code>PotentialDeadlock</code> carrying the message stacks (role stacks) under which
+ * every edge of the cycle was first observed.
+ * <p>
+ * Nodes and edges already in the graph are found by lock-free hash lookups, so the steady state adds no
+ * synchronization to the hooked lock. A new edge costs a message stack snapshot and a search of the graph. Because
+ * the edge is checked at <code>attemptingAcquisition</code>, an ordering that actually deadlocks is reported before
+ * the thread blocks. A <code>tryLock()</code> cannot deadlock, but the hook cannot distinguish it, so its ordering is
+ * recorded like any other.
+ * <p>
+ * The graph holds its locks weakly: once a lock has been collected, its node and all of its edges are pruned when the
+ * next new lock enters the graph, since a collected lock can no longer take part in a deadlock. Each thread tracks
+ * only the locks it currently holds, and an <code>Edge</code> describes its locks rather than referencing them, so
+ * the graph grows with the live locks and the orderings observed among them.
+ * 
+ * @author Byron Hawkins
+ */
+public class LockOrderHook implements LockHook, SemaphoreHook
+{
+	/**
+	 * DOC comment task awaits.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	public interface Listener
+	{
+		void potentialDeadlock(PotentialDeadlock deadlock);
+	}
+
+	/**
+	 * An observed ordering of two locks: a thread attempted to acquire the lock described by <code>acquired</code> while
+	 * holding the lock described by <code>held</code>. The locks themselves are not referenced, so that the edge does
+	 * not keep them alive.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	public static class Edge
+	{
+		public final String held;
+		public final String acquired;
+		public final String threadName;
+		public final MessageStackSnapshot roleStack;
+
+		Edge(Object held, Object acquired, String threadName, MessageStackSnapshot roleStack)
+		{
+			this.held = describe(held);
+			this.acquired = describe(acquired);
+			this.threadName = threadName;
+			this.roleStack = roleStack;
+		}
+
+		@Override
+		public String toString()
+		{
+			StringBuilder buffer = new StringBuilder();
+			buffer.append(held).append(" -> ").append(acquired).append(" in thread ").append(threadName).append(" with roles [");
+			String separator = "";
+			for (MessageStackFrame frame : roleStack)
+			{
+				buffer.append(separator).append(frame.getReceiverRole());
+				separator = " <- ";
+			}
+			buffer.append("]");
+			return buffer.toString();
+		}
+	}
+
+	/**
+	 * A cycle in the lock-order graph. The first edge is the new one; each subsequent edge continues from the lock
+	 * acquired by the one before it, and the last edge acquires the lock held by the first.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	public static class PotentialDeadlock
+	{
+		public final List<Edge> cycle;
+
+		PotentialDeadlock(List<Edge> cycle)
+		{
+			this.cycle = Collections.unmodifiableList(cycle);
+		}
+
+		@Override
+		public String toString()
+		{
+			StringBuilder buffer = new StringBuilder("Potential deadlock in lock order:");
+			for (Edge edge : cycle)
+			{
+				buffer.append("\n\t").append(edge);
+			}
+			return buffer.toString();
+		}
+	}
+
+	/**
+	 * A lock in the graph, with its outgoing edges and the nodes having an edge to it, by which its edges are pruned
+	 * once the lock has been collected.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	private static class Node
+	{
+		final IdentityKey key;
+		final ConcurrentMap<Node, Edge> successors = new ConcurrentHashMap<Node, Edge>();
+		final Set<Node> predecessors = Collections.newSetFromMap(new ConcurrentHashMap<Node, Boolean>());
+
+		Node(IdentityKey key)
+		{
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Weak key for the global node table, which compares locks by identity. A key whose lock has been collected is
+	 * equal only to itself. Lookups use a <code>LookupKey</code> instead, so that they allocate no reference.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	private static class IdentityKey extends WeakReference<Object>
+	{
+		final int hash;
+
+		IdentityKey(Object lock, ReferenceQueue<Object> queue)
+		{
+			super(lock, queue);
+			hash = System.identityHashCode(lock);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other)
+		{
+			if (other == this)
+			{
+				return true;
+			}
+			Object lock = get();
+			if (other instanceof LookupKey)
+			{
+				return (lock != null) && (lock == ((LookupKey) other).lock);
+			}
+			if (!(other instanceof IdentityKey))
+			{
+				return false;
+			}
+			return (lock != null) && (lock == ((IdentityKey) other).get());
+		}
+	}
+
+	/**
+	 * Strong probe for looking up a lock in the global node table, reused by one thread for every lookup and cleared
+	 * afterwards so that it does not retain the lock.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	private static class LookupKey
+	{
+		Object lock;
+		int hash;
+
+		LookupKey set(Object lock)
+		{
+			this.lock = lock;
+			hash = System.identityHashCode(lock);
+			return this;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other)
+		{
+			return (other instanceof IdentityKey) && (lock != null) && (((IdentityKey) other).get() == lock);
+		}
+	}
+
+	/**
+	 * The locks held by one thread, in order of acquisition, and the node of its latest attempted acquisition, which
+	 * saves a second lookup when the acquisition succeeds.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	private static class ThreadContext
+	{
+		final LookupKey lookupKey = new LookupKey();
+		Node[] held = new Node[8];
+		int heldCount = 0;
+		Node attempted;
+
+		boolean isHeld(Node node)
+		{
+			for (int i = heldCount - 1; i >= 0; i--)
+			{
+				if (held[i] == node)
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+
+		void push(Node node)
+		{
+			if (heldCount == held.length)
+			{
+				Node[] expanded = new Node[heldCount * 2];
+				System.arraycopy(held, 0, expanded, 0, heldCount);
+				held = expanded;
+			}
+			held[heldCount++] = node;
+		}
+
+		void remove(Object lock)
+		{
+			for (int i = heldCount - 1; i >= 0; i--)
+			{
+				if (held[i].key.get() == lock)
+				{
+					heldCount--;
+					System.arraycopy(held, i + 1, held, i, heldCount - i);
+					held[heldCount] = null;
+					return;
+				}
+			}
+		}
+	}
+
+	public static final LockOrderHook INSTANCE = new LockOrderHook();
+
+	// keyed by IdentityKey, and probed with a LookupKey
+	private final ConcurrentMap<Object, Node> nodes = new ConcurrentHashMap<Object, Node>();
+	private final ReferenceQueue<Object> collectedLocks = new ReferenceQueue<Object>();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	private final ThreadLocal<ThreadContext> context = new ThreadLocal<ThreadContext>() {
+		@Override
+		protected ThreadContext initialValue()
+		{
+			return new ThreadContext();
+		}
+	};
+
+	/**
+	 * Potential deadlocks are sent to the listeners, or logged as warnings if there are none.
+	 */
+	public void addListener(Listener listener)
+	{
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener)
+	{
+		listeners.remove(listener);
+	}
+
+	@Override
+	public void attemptingAcquisition(Lock lock)
+	{
+		attempting(lock);
+	}
+
+	@Override
+	public void lockAcquired(Lock lock)
+	{
+		acquired(lock);
+	}
+
+	@Override
+	public void lockReleased(Lock lock)
+	{
+		released(lock);
+	}
+
+	@Override
+	public void attemptingAcquisition(Object semaphore)
+	{
+		attempting(semaphore);
+	}
+
+	@Override
+	public void semaphoreAcquired(Object semaphore)
+	{
+		acquired(semaphore);
+	}
+
+	@Override
+	public void semaphoreReleased(Object semaphore)
+	{
+		released(semaphore);
+	}
+
+	private void attempting(Object lock)
+	{
+		ThreadContext threadContext = context.get();
+		if (threadContext.heldCount == 0)
+		{
+			return;
+		}
+
+		Node acquiring = getNode(threadContext, lock);
+		threadContext.attempted = acquiring;
+		Node held = threadContext.held[threadContext.heldCount - 1];
+		if ((held == acquiring) || held.successors.containsKey(acquiring) || threadContext.isHeld(acquiring))
+		{
+			// known ordering, or reentry
+			return;
+		}
+
+		Object heldLock = held.key.get();
+		if (heldLock == null)
+		{
+			return;
+		}
+
+		Edge edge = new Edge(heldLock, lock, Thread.currentThread().getName(), ExecutionPath.snapshot());
+		if (held.successors.putIfAbsent(acquiring, edge) == null)
+		{
+			acquiring.predecessors.add(held);
+
+			List<Edge> path = findPath(acquiring, held);
+			if (path != null)
+			{
+				path.add(0, edge);
+				report(new PotentialDeadlock(path));
+			}
+		}
+	}
+
+	private void acquired(Object lock)
+	{
+		ThreadContext threadContext = context.get();
+		Node node = threadContext.attempted;
+		threadContext.attempted = null;
+		if ((node == null) || (node.key.get() != lock))
+		{
+			node = getNode(threadContext, lock);
+		}
+		threadContext.push(node);
+	}
+
+	private void released(Object lock)
+	{
+		ThreadContext threadContext = context.get();
+		threadContext.attempted = null;
+		threadContext.remove(lock);
+	}
+
+	private Node getNode(ThreadContext threadContext, Object lock)
+	{
+		Node node = nodes.get(threadContext.lookupKey.set(lock));
+		threadContext.lookupKey.lock = null;
+		if (node == null)
+		{
+			pruneCollectedLocks();
+			Node created = new Node(new IdentityKey(lock, collectedLocks));
+			node = nodes.putIfAbsent(created.key, created);
+			if (node == null)
+			{
+				node = created;
+			}
+		}
+		return node;
+	}
+
+	/**
+	 * Remove the node of each collected lock from the graph, along with all of its edges.
+	 */
+	private void pruneCollectedLocks()
+	{
+		for (Object collected = collectedLocks.poll(); collected != null; collected = collectedLocks.poll())
+		{
+			Node node = nodes.remove(collected);
+			if (node == null)
+			{
+				continue;
+			}
+			for (Node predecessor : node.predecessors)
+			{
+				predecessor.successors.remove(node);
+			}
+			for (Node successor : node.successors.keySet())
+			{
+				successor.predecessors.remove(node);
+			}
+		}
+	}
+
+	/**
+	 * Breadth-first search for the shortest path of edges from <code>start</code> to <code>target</code>.
+	 * 
+	 * @return the edges of the path in order, or null if there is no path
+	 */
+	private List<Edge> findPath(Node start, Node target)
+	{
+		Map<Node, Edge> arrivals = new IdentityHashMap<Node, Edge>();
+		Map<Node, Node> predecessors = new IdentityHashMap<Node, Node>();
+		List<Node> frontier = new ArrayList<Node>();
+		frontier.add(start);
+		predecessors.put(start, start);
+
+		while (!frontier.isEmpty())
+		{
+			List<Node> next = new ArrayList<Node>();
+			for (Node node : frontier)
+			{
+				for (Map.Entry<Node, Edge> successor : node.successors.entrySet())
+				{
+					Node successorNode = successor.getKey();
+					if (predecessors.containsKey(successorNode))
+					{
+						continue;
+					}
+					predecessors.put(successorNode, node);
+					arrivals.put(successorNode, successor.getValue());
+					if (successorNode == target)
+					{
+						List<Edge> path = new ArrayList<Edge>();
+						for (Node step = target; step != start; step = predecessors.get(step))
+						{
+							path.add(0, arrivals.get(step));
+						}
+						return path;
+					}
+					next.add(successorNode);
+				}
+			}
+			frontier = next;
+		}
+		return null;
+	}
+
+	private void report(PotentialDeadlock deadlock)
+	{
+		if (listeners.isEmpty())
+		{
+			Log.out(Tag.WARNING, "%s", deadlock);
+		}
+		else
+		{
+			for (Listener listener : listeners)
+			{
+				listener.potentialDeadlock(deadlock);
+			}
+		}
+	}
+
+	private static String describe(Object lock)
+	{
+		return RNSUtils.getPlainName(lock.getClass()) + "@" + Integer.toHexString(System.identityHashCode(lock));
+	}
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2011 HawkinsSoftware
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Byron Hawkins of HawkinsSoftware
+ */
+package org.hawkinssoftware.rns.core.lock;
+
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A <code>LockHook</code> which additionally observes the optimistic reads of a <code>HookedStampedLock</code>. The
+ * <code>LockHook</code> methods receive the lock's read or write view (<code>asReadLock()</code> and
+ * <code>asWriteLock()</code>) for its pessimistic acquisitions and releases, and the optimistic methods receive the
+ * read view.
+ * 
+ * @author Byron Hawkins
+ */
+public interface StampedLockHook extends LockHook
+{
+	/**
+	 * An optimistic read was started; only reported for reads selected by the lock's optimistic sampling interval.
+	 * 
+	 * @param stamp
+	 *            0 if the write lock was held, so the read is already invalid
+	 */
+	void optimisticReadStarted(Lock readLock, long stamp);
+
+	/**
+	 * An optimistic read was validated successfully; only reported for validations selected by the lock's optimistic
+	 * sampling interval.
+	 */
+	void optimisticValidationSucceeded(Lock readLock, long stamp);
+
+	/**
+	 * An optimistic read failed validation because the write lock was acquired since it started. Always reported.
+	 */
+	void optimisticValidationFailed(Lock readLock, long stamp);
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2011 HawkinsSoftware
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Byron Hawkins of HawkinsSoftware
+ */
+package org.hawkinssoftware.rns.core.moa;
+
+/**
+ * Per-path index of execution stack positions by receiver type, for the caller types registered with
+ * <code>ExecutionPath.indexCallerType()</code>. Each registered type is assigned one bit of a <code>long</code> mask,
+ * and each receiver class caches the mask of registered types it is assignable to. A path begins covering a registered
+ * type the first time that type is queried on the path, by scanning its stack once; from then on the positions are
+ * maintained incrementally on every push and pop, so the most recent caller of that type is found in constant time.
+ * 
+ * @author Byron Hawkins
+ */
+class CallerIndex
+{
+	static final int MAX_INDEXED_TYPES = 64;
+
+	/**
+	 * The registered types, replaced as a whole on every registration, which invalidates all cached masks.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	private static class Registration
+	{
+		final Class<?>[] types;
+
+		Registration(Class<?>[] types)
+		{
+			this.types = types;
+		}
+	}
+
+	private static volatile Registration registration = new Registration(new Class<?>[0]);
+
+	/**
+	 * Immutable assignability of one receiver class to the types of one <code>Registration</code>, published as a unit
+	 * so that a reader never pairs a mask with the wrong registration.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	private static class MaskSnapshot
+	{
+		final Registration registration;
+		final long mask;
+		final int queryIndex;
+
+		MaskSnapshot(Registration registration, long mask, int queryIndex)
+		{
+			this.registration = registration;
+			this.mask = mask;
+			this.queryIndex = queryIndex;
+		}
+	}
+
+	/**
+	 * Cached assignability of one receiver class to the registered types.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	private static class TypeMask
+	{
+		private final Class<?> type;
+		private volatile MaskSnapshot snapshot = null;
+
+		TypeMask(Class<?> type)
+		{
+			this.type = type;
+		}
+
+		private MaskSnapshot getSnapshot()
+		{
+			Registration current = CallerIndex.registration;
+			MaskSnapshot snapshot = this.snapshot;
+			if ((snapshot == null) || (snapshot.registration != current))
+			{
+				snapshot = refresh(current);
+				this.snapshot = snapshot;
+			}
+			return snapshot;
+		}
+
+		private MaskSnapshot refresh(Registration current)
+		{
+			Class<?>[] types = current.types;
+			long mask = 0L;
+			int queryIndex = -1;
+			for (int i = 0; i < types.length; i++)
+			{
+				if (types[i].isAssignableFrom(type))
+				{
+					mask |= (1L << i);
+				}
+				if (types[i] == type)
+				{
+					queryIndex = i;
+				}
+			}
+			return new MaskSnapshot(current, mask, queryIndex);
+		}
+
+		long getMask()
+		{
+			return getSnapshot().mask;
+		}
+
+		int getQueryIndex()
+		{
+			return getSnapshot().queryIndex;
+		}
+	}
+
+	private static final ClassValue<TypeMask> MASKS = new ClassValue<TypeMask>() {
+		@Override
+		protected TypeMask computeValue(Class<?> type)
+		{
+			return new TypeMask(type);
+		}
+	};
+
+	/**
+	 * @return false if the maximum number of indexed types has already been registered
+	 */
+	static synchronized boolean register(Class<?> type)
+	{
+		Class<?>[] types = registration.types;
+		for (Class<?> indexedType : types)
+		{
+			if (indexedType == type)
+			{
+				return true;
+			}
+		}
+		if (types.length == MAX_INDEXED_TYPES)
+		{
+			return false;
+		}
+
+		Class<?>[] expanded = new Class<?>[types.length + 1];
+		System.arraycopy(types, 0, expanded, 0, types.length);
+		expanded[types.length] = type;
+		registration = new Registration(expanded);
+		return true;
+	}
+
+	/**
+	 * @return the bit index assigned to <code>type</code>, or -1 if it is not registered
+	 */
+	static int getQueryIndex(Class<?> type)
+	{
+		return MASKS.get(type).getQueryIndex();
+	}
+
+	// registered types which this path indexes
+	private long coveredMask = 0L;
+	// covered types which have at least one position on the stack
+	private long occupiedMask = 0L;
+
+	private final int[][] positions = new int[MAX_INDEXED_TYPES][];
+	private final int[] counts = new int[MAX_INDEXED_TYPES];
+
+	/**
+	 * Index the receiver just pushed at <code>position</code>.
+	 */
+	void push(Object receiver, int position)
+	{
+		if ((coveredMask == 0L) || (receiver == null))
+		{
+			return;
+		}
+		long mask = MASKS.get(receiver.getClass()).getMask() & coveredMask;
+		while (mask != 0L)
+		{
+			int queryIndex = Long.numberOfTrailingZeros(mask);
+			mask &= (mask - 1);
+			add(queryIndex, position);
+		}
+	}
+
+	/**
+	 * Discard every position at or above <code>size</code>, which is the size of the stack after a pop.
+	 */
+	void pop(int size)
+	{
+		long occupied = occupiedMask;
+		while (occupied != 0L)
+		{
+			int queryIndex = Long.numberOfTrailingZeros(occupied);
+			occupied &= (occupied - 1);
+
+			int count = counts[queryIndex];
+			int[] typePositions = positions[queryIndex];
+			while ((count > 0) && (typePositions[count - 1] >= size))
+			{
+				count--;
+			}
+			counts[queryIndex] = count;
+			if (count == 0)
+			{
+				occupiedMask &= ~(1L << queryIndex);
+			}
+		}
+	}
+
+	private void add(int queryIndex, int position)
+	{
+		int[] typePositions = positions[queryIndex];
+		if (typePositions == null)
+		{
+			typePositions = new int[8];
+			positions[queryIndex] = typePositions;
+		}
+		else if (counts[queryIndex] == typePositions.length)
+		{
+			int[] expanded = new int[typePositions.length * 2];
+			System.arraycopy(typePositions, 0, expanded, 0, typePositions.length);
+			typePositions = expanded;
+			positions[queryIndex] = typePositions;
+		}
+		typePositions[counts[queryIndex]++] = position;
+		occupiedMask |= (1L << queryIndex);
+	}
+
+	/**
+	 * Begin indexing the registered type at <code>queryIndex</code>, if this path does not already.
+	 */
+	void cover(int queryIndex, ExecutionStack stack)
+	{
+		long bit = (1L << queryIndex);
+		if ((coveredMask & bit) != 0L)
+		{
+			return;
+		}
+
+		coveredMask |= bit;
+		counts[queryIndex] = 0;
+		if (stack == null)
+		{
+			return;
+		}
+		for (int i = 0; i < stack.size(); i++)
+		{
+			Object receiver = stack.get(i).getReceiver();
+			if ((receiver != null) && ((MASKS.get(receiver.getClass()).getMask() & bit) != 0L))
+			{
+				add(queryIndex, i);
+			}
+		}
+	}
+
+	int getCount(int queryIndex)
+	{
+		return counts[queryIndex];
+	}
+
+	/**
+	 * @param ordinal
+	 *            0 for the most recent position of the type, 1 for the next most recent, etc.
+	 */
+	int getPosition(int queryIndex, int ordinal)
+	{
+		return positions[queryIndex][counts[queryIndex] - 1 - ordinal];
+	}
+}
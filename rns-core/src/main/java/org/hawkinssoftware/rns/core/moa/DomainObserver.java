@@ -23,6 +23,11 @@ import org.hawkinssoftware.rns.core.util.RNSUtils;
 
 /**
  * An asynchronous update interface for receiving notifications about Domain information as the Domain is constructed.
+ * <p>
+ * The observer keeps, for each orthogonal set, a count of the distinct roles on the stack in each of the set's
+ * domains. A message to a new receiver is checked only against the orthogonal sets in which the receiver participates,
+ * and the full evaluation against every role on the stack is made only when one of those sets is occupied by another
+ * of its domains.
  */
 public class DomainObserver implements ExecutionPath.StackObserver
 {
@@ -76,19 +81,130 @@ public class DomainObserver implements ExecutionPath.StackObserver
 	{
 		final TypeRole receiverRole;
 		int depth = 0;
+		DomainSpecificationRegistry.OrthogonalPosition[] positions;
 
-		public Frame(TypeRole receiverRole)
+		public Frame(TypeRole receiverRole, DomainSpecificationRegistry.OrthogonalPosition[] positions)
 		{
 			this.receiverRole = receiverRole;
+			this.positions = positions;
 		}
 	}
 
+	private static final int LARGE_STACK_SIZE = 15;
+
+	private static final int[] NO_COUNTS = new int[0];
+
 	private final Map<TypeRole, Frame> framesByTypeRole = new HashMap<TypeRole, Frame>();
 
+	// distinct roles on the stack by orthogonal set and then by domain within the set
+	private int[][] domainCounts = new int[0][];
+	// distinct roles on the stack by orthogonal set
+	private int[] setCounts = NO_COUNTS;
+	private int revision = -1;
+
 	private final List<Listener> listeners = new ArrayList<Listener>();
 
 	@Override
 	public void sendingMessage(TypeRole senderRole, TypeRole receiverRole, Object receiver, String messageDescription)
+	{
+		DomainSpecificationRegistry registry = DomainSpecificationRegistry.getInstance();
+		if (registry.getRevision() != revision)
+		{
+			recount(registry);
+		}
+
+		Frame frame = framesByTypeRole.get(receiverRole);
+		DomainSpecificationRegistry.OrthogonalPosition[] positions = (frame == null) ? registry.getOrthogonalPositions(receiverRole) : frame.positions;
+		if (hasOrthogonalNeighbor(positions))
+		{
+			reportViolations(receiverRole);
+		}
+
+		if (frame == null)
+		{
+			frame = new Frame(receiverRole, positions);
+			framesByTypeRole.put(receiverRole, frame);
+			count(positions, 1);
+
+			if (framesByTypeRole.size() == (LARGE_STACK_SIZE + 1))
+			{
+				// logged only on crossing the threshold, since formatting the stack costs O(distinct roles)
+				Log.out(Tag.DEBUG, "Large stack: %s", this);
+			}
+		}
+		else
+		{
+			frame.depth++;
+		}
+	}
+
+	/**
+	 * @return true if another role on the stack occupies a different domain of an orthogonal set shared with the
+	 *         receiver
+	 */
+	private boolean hasOrthogonalNeighbor(DomainSpecificationRegistry.OrthogonalPosition[] positions)
+	{
+		for (DomainSpecificationRegistry.OrthogonalPosition position : positions)
+		{
+			if (position.setIndex >= setCounts.length)
+			{
+				continue;
+			}
+			int[] counts = domainCounts[position.setIndex];
+			int sameDomainCount = (position.domainIndex < counts.length) ? counts[position.domainIndex] : 0;
+			if ((setCounts[position.setIndex] - sameDomainCount) > 0)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void count(DomainSpecificationRegistry.OrthogonalPosition[] positions, int delta)
+	{
+		for (DomainSpecificationRegistry.OrthogonalPosition position : positions)
+		{
+			if (position.setIndex >= setCounts.length)
+			{
+				int setCount = position.setIndex + 1;
+				int[][] expandedDomainCounts = new int[setCount][];
+				System.arraycopy(domainCounts, 0, expandedDomainCounts, 0, domainCounts.length);
+				int[] expandedSetCounts = new int[setCount];
+				System.arraycopy(setCounts, 0, expandedSetCounts, 0, setCounts.length);
+				for (int i = domainCounts.length; i < setCount; i++)
+				{
+					expandedDomainCounts[i] = NO_COUNTS;
+				}
+				domainCounts = expandedDomainCounts;
+				setCounts = expandedSetCounts;
+			}
+			if (position.domainIndex >= domainCounts[position.setIndex].length)
+			{
+				int[] expanded = new int[position.domainIndex + 1];
+				System.arraycopy(domainCounts[position.setIndex], 0, expanded, 0, domainCounts[position.setIndex].length);
+				domainCounts[position.setIndex] = expanded;
+			}
+			domainCounts[position.setIndex][position.domainIndex] += delta;
+			setCounts[position.setIndex] += delta;
+		}
+	}
+
+	/**
+	 * Rebuild the counts from the roles on the stack, after the orthogonal sets or the domain graph have changed.
+	 */
+	private void recount(DomainSpecificationRegistry registry)
+	{
+		revision = registry.getRevision();
+		domainCounts = new int[0][];
+		setCounts = NO_COUNTS;
+		for (Frame frame : framesByTypeRole.values())
+		{
+			frame.positions = registry.getOrthogonalPositions(frame.receiverRole);
+			count(frame.positions, 1);
+		}
+	}
+
+	private void reportViolations(TypeRole receiverRole)
 	{
 		for (TypeRole type : framesByTypeRole.keySet())
 		{
@@ -111,27 +227,11 @@ public class DomainObserver implements ExecutionPath.StackObserver
 				}
 			}
 		}
-
-		Frame frame = framesByTypeRole.get(receiverRole);
-		if (frame == null)
-		{
-			frame = new Frame(receiverRole);
-			framesByTypeRole.put(receiverRole, frame);
-		}
-		else
-		{
-			frame.depth++;
-		}
 	}
 
 	@Override
 	public void messageReturningFrom(TypeRole receiverRole, Object receiver)
 	{
-		if (framesByTypeRole.size() > 15)
-		{
-			Log.out(Tag.DEBUG, "Large stack: %s", this);
-		}
-
 		Frame frame = framesByTypeRole.get(receiverRole);
 		if (frame == null)
 		{
@@ -144,6 +244,7 @@ public class DomainObserver implements ExecutionPath.StackObserver
 		if (frame.depth == 0)
 		{
 			framesByTypeRole.remove(receiverRole);
+			count(frame.positions, -1);
 		}
 		else
 		{
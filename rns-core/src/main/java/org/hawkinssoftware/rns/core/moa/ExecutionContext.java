@@ -10,6 +10,8 @@
  */
 package org.hawkinssoftware.rns.core.moa;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * DOC comment task awaits.
  * 
@@ -19,14 +21,19 @@ public abstract class ExecutionContext
 {
 	
 	/**
-	 * DOC comment task awaits.
+	 * Identifies a kind of <code>ExecutionContext</code> on the <code>ExecutionPath</code>. Each key is assigned a
+	 * dense slot when it is created, and each path keeps its contexts in an array indexed by slot, so keys are intended
+	 * to be long-lived (typically static constants).
 	 * 
 	 * @param <ContextType>
 	 *            the generic type
 	 * @author Byron Hawkins
 	 */
-	public interface Key<ContextType extends ExecutionContext>
+	public static class Key<ContextType extends ExecutionContext>
 	{
+		private static final AtomicInteger NEXT_SLOT = new AtomicInteger();
+
+		final int slot = NEXT_SLOT.getAndIncrement();
 	}
 	
 	ExecutionStackFrame entryFrame;
@@ -15,15 +15,21 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.hawkinssoftware.rns.core.log.Log;
 import org.hawkinssoftware.rns.core.role.RoleRegistry;
 import org.hawkinssoftware.rns.core.role.TypeRole;
 import org.hawkinssoftware.rns.core.util.EnumeratedProperties;
 import org.hawkinssoftware.rns.core.util.EnumeratedProperties.PropertyStatus;
+import org.hawkinssoftware.rns.core.util.RNSLogging.Tag;
 import org.hawkinssoftware.rns.core.util.RNSUtils;
 
 /**
@@ -93,14 +99,29 @@ public class ExecutionPath
 	}
 
 	/**
-	 * Stack data container.
+	 * The state displaced by <code>inherit()</code>, to be put back by <code>restore()</code>.
 	 * 
 	 * @author Byron Hawkins
 	 */
-	private static class CurrentCaller
+	static class Restoration
 	{
-		private Class<?> caller;
-		private String callDescription;
+		/**
+		 * Nothing was displaced, because the task ran on the submitting thread above the frames it would inherit.
+		 */
+		static final Restoration UNCHANGED = new Restoration(null, 0, null, MethodDescriptorRegistry.UNKNOWN);
+
+		private final PathInheritance inherited;
+		private final int messageDepth;
+		private final Class<?> caller;
+		private final int callSiteId;
+
+		Restoration(PathInheritance inherited, int messageDepth, Class<?> caller, int callSiteId)
+		{
+			this.inherited = inherited;
+			this.messageDepth = messageDepth;
+			this.caller = caller;
+			this.callSiteId = callSiteId;
+		}
 	}
 
 	private static final ThreadLocal<ExecutionPath> CURRENT_PATH = new ThreadLocal<ExecutionPath>() {
@@ -111,17 +132,33 @@ public class ExecutionPath
 		}
 	};
 
-	private static final ThreadLocal<CurrentCaller> CURRENT_CALLER = new ThreadLocal<CurrentCaller>() {
-		@Override
-		protected CurrentCaller initialValue()
-		{
-			return new CurrentCaller();
-		}
-	};
+	/**
+	 * When the system property "virtual-thread-mode" is set, the <code>ExecutionPath</code> is configured for a JVM
+	 * hosting very many short-lived threads: each stack starts with only a few frame slots, and paths are not registered
+	 * in the <code>Universe</code> (so <code>Universe.getLivePathCount()</code> is not maintained).
+	 */
+	static final boolean VIRTUAL_THREAD_MODE = (System.getProperty("virtual-thread-mode") != null);
+
+	private static final int INITIAL_STACK_CAPACITY = VIRTUAL_THREAD_MODE ? 4 : 32;
+
+	/**
+	 * When the system property "persistent-message-stack" is set, each message stack is a chain of immutable frames, so
+	 * that <code>snapshot()</code> is constant time and allocates nothing, at the cost of one small allocation per
+	 * message frame push. Otherwise message frames are recycled and <code>snapshot()</code> copies the stack.
+	 */
+	static final boolean PERSISTENT_MESSAGE_STACK = (System.getProperty("persistent-message-stack") != null);
 
 	/**
 	 * Refers to the universe of <code>ExecutionPath</code> instances; i.e., all threads in the JVM. It is currently
-	 * only used to register observers.
+	 * only used to register observers and to count the live paths.
+	 * <p>
+	 * The registered factories are published as an immutable array along with a generation number. Each path compares
+	 * the generation on its next frame push and, if it has changed, rebuilds its own observer array on its own thread.
+	 * No path is ever modified by another thread.
+	 * <p>
+	 * Paths are tracked by weak reference, so the path of a terminated thread is collected along with the thread's
+	 * locals. Collected references are reaped from the <code>ReferenceQueue</code> whenever a path is registered or
+	 * counted, and registration takes no lock.
 	 * 
 	 * @author Byron Hawkins
 	 */
@@ -132,89 +169,138 @@ public class ExecutionPath
 			return INSTANCE;
 		}
 
+		// initialized ahead of INSTANCE, which refers to it
+		private static final StackObserver.Factory<?>[] NO_FACTORIES = new StackObserver.Factory<?>[0];
+
 		static final Universe INSTANCE = new Universe();
 
-		final List<ExecutionPath> paths = new ArrayList<ExecutionPath>();
+		/**
+		 * Weak registration of an <code>ExecutionPath</code>, compared by identity.
+		 * 
+		 * @author Byron Hawkins
+		 */
+		private static class PathReference extends WeakReference<ExecutionPath>
+		{
+			PathReference(ExecutionPath path, ReferenceQueue<ExecutionPath> queue)
+			{
+				super(path, queue);
+			}
+		}
+
+		private final Set<PathReference> paths = Collections.newSetFromMap(new ConcurrentHashMap<PathReference, Boolean>());
+		private final ReferenceQueue<ExecutionPath> collectedPaths = new ReferenceQueue<ExecutionPath>();
+
 		final List<StackObserver.Factory<?>> observers = new ArrayList<StackObserver.Factory<?>>();
 
+		private volatile StackObserver.Factory<?>[] factories = NO_FACTORIES;
+		// written after factories, so a path reading a new generation also sees the corresponding factories
+		private volatile int generation = 0;
+
 		public synchronized void addObserver(StackObserver.Factory<?> observer)
 		{
 			observers.add(observer);
-
-			for (int i = paths.size() - 1; i >= 0; i--)
-			{
-				if (!paths.get(i).thread.isAlive())
-				{
-					paths.remove(i);
-				}
-				paths.get(i).observers.add(observer.create());
-			}
+			publishObservers();
 		}
 
 		public synchronized void removeObserver(StackObserver.Factory<?> observer)
 		{
 			observers.remove(observer);
+			publishObservers();
+		}
 
-			for (int i = paths.size() - 1; i >= 0; i--)
-			{
-				ExecutionPath path = paths.get(i);
-				if (!path.thread.isAlive())
-				{
-					paths.remove(i);
-				}
+		private void publishObservers()
+		{
+			factories = observers.toArray(new StackObserver.Factory<?>[observers.size()]);
+			generation++;
+		}
 
-				for (StackObserver pathObserver : path.observers)
-				{
-					if (pathObserver.getClass() == observer.getObserverType())
-					{
-						path.observers.remove(pathObserver);
-						break;
-					}
-				}
-			}
+		public int getLivePathCount()
+		{
+			reapCollectedPaths();
+			return paths.size();
 		}
 
-		synchronized ExecutionPath createExecutionPath()
+		private void reapCollectedPaths()
 		{
-			ExecutionPath path = new ExecutionPath();
+			Reference<? extends ExecutionPath> collected;
+			while ((collected = collectedPaths.poll()) != null)
+			{
+				paths.remove(collected);
+			}
+		}
 
-			for (StackObserver.Factory<?> observer : observers)
+		ExecutionPath createExecutionPath()
+		{
+			if (VIRTUAL_THREAD_MODE)
 			{
-				path.observers.add(observer.create());
+				return new ExecutionPath();
 			}
-			paths.add(path);
+
+			reapCollectedPaths();
+
+			ExecutionPath path = new ExecutionPath();
+			paths.add(new PathReference(path, collectedPaths));
 			return path;
 		}
 	}
 
-	private final EnumeratedProperties properties = new EnumeratedProperties();
-	private final Set<StackObserver> observers = new HashSet<StackObserver>();
+	private static final StackObserver[] NO_OBSERVERS = new StackObserver[0];
 
-	private final MethodInvocationStack<MessageStackFrame> messageStack = new MethodInvocationStack<MessageStackFrame>();
-	private final ExecutionStack executionStack = new ExecutionStack();
+	/*
+	 * The path is the only per-thread carrier of RNS state, so an idle path is kept to a few dozen bytes: the properties
+	 * and both stacks are inflated on first use, and the observer arrays are shared empty arrays until populated.
+	 */
 
-	private boolean executingMetaMethod = false;
+	// the most recent call site posted by instrumentation, paired with the next frame push
+	private Class<?> caller;
+	private int callSiteId;
 
-	private final Thread thread = Thread.currentThread();
+	// path state of the thread which submitted the currently running task, if any
+	private PathInheritance inherited;
 
-	private static void addMessageFrame(MessageStackFrame frame)
-	{
-		CURRENT_PATH.get().messageStack.push(frame);
-	}
+	private EnumeratedProperties properties;
+	// allocated when this path is first queried for an indexed caller type
+	private CallerIndex callerIndex;
+
+	// all observers of this path, rebuilt whenever one of the constituent arrays changes
+	private StackObserver[] observers = NO_OBSERVERS;
+	// observers created from the Universe factories, parallel to universeFactories
+	private StackObserver.Factory<?>[] universeFactories = Universe.NO_FACTORIES;
+	private StackObserver[] universeObservers = NO_OBSERVERS;
+	// observers added directly to this path via addObserver()
+	private StackObserver[] localObservers = NO_OBSERVERS;
+	private int observerGeneration = -1;
+
+	private MessageStack messageStack;
+	private ExecutionStack executionStack;
 
-	private static MessageStackFrame removeMessageFrame()
+	private boolean executingMetaMethod = false;
+
+	private EnumeratedProperties properties()
 	{
-		return CURRENT_PATH.get().messageStack.pop();
+		if (properties == null)
+		{
+			properties = new EnumeratedProperties();
+		}
+		return properties;
 	}
 
-	private static void addExecutionFrame(ExecutionStackFrame frame)
+	private MessageStack messageStack()
 	{
-		CURRENT_PATH.get().executionStack.push(frame);
+		if (messageStack == null)
+		{
+			messageStack = PERSISTENT_MESSAGE_STACK ? new PersistentMessageStack() : new RecyclingMessageStack(INITIAL_STACK_CAPACITY);
+		}
+		return messageStack;
 	}
 
-	private static ExecutionStackFrame removeExecutionFrame()
+	private ExecutionStack executionStack()
 	{
-		return CURRENT_PATH.get().executionStack.pop();
+		if (executionStack == null)
+		{
+			executionStack = new ExecutionStack(INITIAL_STACK_CAPACITY);
+		}
+		return executionStack;
 	}
 
 	private static TypeRole lookupReceiverRole(Object receiverInstance)
@@ -225,40 +311,46 @@ public class ExecutionPath
 
 	public static ExecutionStackFrame getExecutionFrame()
 	{
-		ExecutionPath path = CURRENT_PATH.get();
-		if (path.executionStack.isEmpty())
+		ExecutionStack stack = CURRENT_PATH.get().executionStack;
+		if ((stack == null) || stack.isEmpty())
 		{
 			return null;
 		}
-		return path.executionStack.peek();
+		return stack.peek();
 	}
 
 	public static <ContextType extends ExecutionContext> void installExecutionContext(ExecutionContext.Key<ContextType> key, ContextType context)
 	{
-		CURRENT_PATH.get().executionStack.installContext(key, context);
+		CURRENT_PATH.get().executionStack().installContext(key, context);
 	}
 
 	public static <ContextType extends ExecutionContext> ContextType getExecutionContext(ExecutionContext.Key<ContextType> key)
 	{
-		return CURRENT_PATH.get().executionStack.getContext(key);
+		ExecutionStack stack = CURRENT_PATH.get().executionStack;
+		if (stack == null)
+		{
+			return null;
+		}
+		return stack.getContext(key);
 	}
 
 	public static void removeExecutionContext(ExecutionContext.Key<?> key)
 	{
-		CURRENT_PATH.get().executionStack.removeContext(key);
+		CURRENT_PATH.get().executionStack().removeContext(key);
 	}
 
 	public static boolean isStackEmpty()
 	{
-		return CURRENT_PATH.get().messageStack.isEmpty();
+		MessageStack stack = CURRENT_PATH.get().messageStack;
+		return (stack == null) || stack.isEmpty();
 	}
 
 	public static MessageStackFrame getCurrentFrame()
 	{
-		MethodInvocationStack<MessageStackFrame> stack = CURRENT_PATH.get().messageStack;
-		if (stack.isEmpty())
+		MessageStack stack = CURRENT_PATH.get().messageStack;
+		if ((stack == null) || stack.isEmpty())
 		{
-			return MessageStackFrame.EMPTY;
+			return MessageStackSnapshot.EMPTY;
 		}
 		else
 		{
@@ -266,6 +358,124 @@ public class ExecutionPath
 		}
 	}
 
+	/**
+	 * Capture the message stack of the current thread as it stands now. The snapshot is immutable and may be retained
+	 * indefinitely or handed to another thread.
+	 */
+	public static MessageStackSnapshot snapshot()
+	{
+		MessageStack stack = CURRENT_PATH.get().messageStack;
+		if (stack == null)
+		{
+			return MessageStackSnapshot.EMPTY;
+		}
+		return stack.snapshot();
+	}
+
+	/**
+	 * Capture the current thread's path for a task which will run on another thread. The message stack is captured by
+	 * <code>snapshot()</code>, so it is constant time in the "persistent-message-stack" mode. The receivers of the
+	 * execution stack are captured as a shared <code>ReceiverChain</code>, which only costs a node for each receiver
+	 * pushed since the previous capture.
+	 * 
+	 * @return <code>PathInheritance.NONE</code> if there is nothing to inherit
+	 */
+	public static PathInheritance capture()
+	{
+		ExecutionPath path = CURRENT_PATH.get();
+		MessageStackSnapshot messages = (path.messageStack == null) ? MessageStackSnapshot.EMPTY : path.messageStack.snapshot();
+		ReceiverChain receivers = path.captureReceivers();
+		if (messages.isEmpty() && receivers.isEmpty() && (path.caller == null))
+		{
+			return PathInheritance.NONE;
+		}
+
+		int originIndex = (path.executionStack == null) ? -1 : (path.executionStack.size() - 1);
+		ExecutionStackFrame origin = (originIndex < 0) ? null : path.executionStack.get(originIndex);
+		return new PathInheritance(messages, receivers, path.caller, path.callSiteId, origin, originIndex);
+	}
+
+	private ReceiverChain captureReceivers()
+	{
+		ReceiverChain base = (inherited == null) ? ReceiverChain.EMPTY : inherited.receivers;
+		if (executionStack == null)
+		{
+			return base;
+		}
+
+		// resume from the highest frame whose cached chain was built on the current base
+		int index = executionStack.size() - 1;
+		while ((index >= 0) && (executionStack.get(index).capturedBase != base))
+		{
+			index--;
+		}
+		ReceiverChain chain = (index < 0) ? base : executionStack.get(index).capturedReceivers;
+
+		for (int i = index + 1; i < executionStack.size(); i++)
+		{
+			ExecutionStackFrame frame = executionStack.get(i);
+			if (frame.getReceiver() != null)
+			{
+				chain = new ReceiverChain(frame.getReceiver(), chain);
+			}
+			frame.capturedReceivers = chain;
+			frame.capturedBase = base;
+		}
+		return chain;
+	}
+
+	/**
+	 * @return true if the frames captured in <code>inheritance</code> are still on this path's stack, i.e. the task is
+	 *         being run by the submitting thread itself (a same-thread executor, or <code>CallerRunsPolicy</code>)
+	 */
+	private boolean isOnStack(PathInheritance inheritance)
+	{
+		if ((inheritance.origin == null) || (executionStack == null) || (executionStack.size() <= inheritance.originIndex))
+		{
+			return false;
+		}
+		// a recycled frame has lost its cached chain
+		return (executionStack.get(inheritance.originIndex) == inheritance.origin) && (inheritance.origin.capturedReceivers == inheritance.receivers);
+	}
+
+	/**
+	 * Run the current thread as a continuation of the captured path until <code>restore()</code>: the inherited message
+	 * frames are stacked beneath any new frames, the inherited caller becomes the sender of the next frame, and
+	 * <code>getMostRecentCaller()</code> and <code>getPriorCaller()</code> continue into the inherited receivers. If the
+	 * captured frames are still on the current thread's stack, they are already in effect, so nothing changes.
+	 */
+	static Restoration inherit(PathInheritance inheritance)
+	{
+		ExecutionPath path = CURRENT_PATH.get();
+		if (path.isOnStack(inheritance))
+		{
+			return Restoration.UNCHANGED;
+		}
+
+		MessageStack stack = path.messageStack();
+		Restoration restoration = new Restoration(path.inherited, stack.size(), path.caller, path.callSiteId);
+
+		stack.inherit(inheritance.messages);
+		path.inherited = inheritance;
+		path.caller = inheritance.caller;
+		path.callSiteId = inheritance.callSiteId;
+		return restoration;
+	}
+
+	static void restore(Restoration restoration)
+	{
+		if (restoration == Restoration.UNCHANGED)
+		{
+			return;
+		}
+
+		ExecutionPath path = CURRENT_PATH.get();
+		path.messageStack().restore(restoration.messageDepth);
+		path.inherited = restoration.inherited;
+		path.caller = restoration.caller;
+		path.callSiteId = restoration.callSiteId;
+	}
+
 	public static TypeRole getReceiverRole()
 	{
 		return getCurrentFrame().getReceiverRole();
@@ -284,25 +494,33 @@ public class ExecutionPath
 			return;
 		}
 
-		// seems like calls within the same class should be allowable
+		// seems like calls within the same class should be allowable. Unless a domain of the sender overrides
+		// allowsMessage(), the membership closure answers this without visiting the domains; an override may consult
+		// runtime state, so its answer is not precomputed.
 		if (!senderRole.allowsMessage(receiverRole))
 		{
-			System.err.println("Warning, suspicious activity: role " + senderRole + " is sending messages to role " + receiverRole);
+			Log.out(Tag.WARNING, "Suspicious activity: role %s is sending messages to role %s", senderRole, receiverRole);
 			// throw new IllegalArgumentException("Role " + senderRole + " is not allowed to send messages to role " +
 			// receiverRole);
 		}
 	}
 
-	public static void postCaller(Class<?> caller, String callDescription)
+	/**
+	 * Invoked by instrumentation in the RNS Agent ClassTransformer
+	 * 
+	 * @param callSiteId
+	 *            identifies the call site in the <code>MethodDescriptorRegistry</code>
+	 */
+	public static void postCaller(Class<?> caller, int callSiteId)
 	{
-		CurrentCaller currentCaller = CURRENT_CALLER.get();
-		currentCaller.caller = caller;
-		currentCaller.callDescription = callDescription;
+		ExecutionPath currentPath = CURRENT_PATH.get();
+		currentPath.caller = caller;
+		currentPath.callSiteId = callSiteId;
 	}
 
 	public static String getCurrentCallDescription()
 	{
-		return CURRENT_CALLER.get().callDescription;
+		return MethodDescriptorRegistry.getDescription(CURRENT_PATH.get().callSiteId);
 	}
 
 	/**
@@ -310,7 +528,7 @@ public class ExecutionPath
 	 */
 	public static TypeRole getCallerRole()
 	{
-		Class<?> senderType = CURRENT_CALLER.get().caller;
+		Class<?> senderType = CURRENT_PATH.get().caller;
 		if (senderType == null)
 		{
 			senderType = Object.class;
@@ -326,9 +544,14 @@ public class ExecutionPath
 		return RoleRegistry.getRole(receiverType);
 	}
 
-	public static void pushInvocationFrame(Object receiver, String methodDescription)
+	/**
+	 * Invoked by instrumentation in the RNS Agent ClassTransformer
+	 * 
+	 * @param methodId
+	 *            identifies the entered method in the <code>MethodDescriptorRegistry</code>
+	 */
+	public static void pushInvocationFrame(Object receiver, int methodId)
 	{
-		CurrentCaller currentCaller = CURRENT_CALLER.get();
 		ExecutionPath currentPath = CURRENT_PATH.get();
 
 		if (currentPath.pushingFrame)
@@ -338,44 +561,60 @@ public class ExecutionPath
 		}
 		currentPath.pushingFrame = true;
 
-		ExecutionStackFrame executionFrame = new ExecutionStackFrame(receiver, methodDescription);
-		addExecutionFrame(executionFrame);
-
-		TypeRole senderRole = getCallerRole();
+		try
+		{
+			ExecutionStackFrame executionFrame = currentPath.executionStack().push(receiver, methodId);
+			if (currentPath.callerIndex != null)
+			{
+				currentPath.callerIndex.push(receiver, currentPath.executionStack.size() - 1);
+			}
 
-		TypeRole receiverRole = lookupReceiverRole(receiver);
+			TypeRole senderRole = RoleRegistry.getRole((currentPath.caller == null) ? Object.class : currentPath.caller);
 
-		if (isInMetaMethod() || ((senderRole == null) && (receiverRole == null)))
-		{
-			// no message frame
-			return;
-		}
+			TypeRole receiverRole = lookupReceiverRole(receiver);
 
-		if (senderRole == null)
-		{
-			senderRole = TypeRole.NONE;
-		}
-		if (receiverRole == null)
-		{
-			receiverRole = TypeRole.NONE;
-		}
+			if (currentPath.executingMetaMethod || ((senderRole == null) && (receiverRole == null)))
+			{
+				// no message frame
+				return;
+			}
 
-		for (StackObserver observer : getObservers())
-		{
-			observer.sendingMessage(senderRole, receiverRole, receiver, currentCaller.callDescription);
-		}
+			if (senderRole == null)
+			{
+				senderRole = TypeRole.NONE;
+			}
+			if (receiverRole == null)
+			{
+				receiverRole = TypeRole.NONE;
+			}
 
-		executionFrame.setHasMessageFrame(true);
+			int observerGeneration = Universe.INSTANCE.generation;
+			if (observerGeneration != currentPath.observerGeneration)
+			{
+				currentPath.refreshUniverseObservers(observerGeneration);
+			}
+			StackObserver[] observers = currentPath.observers;
+			if (observers.length > 0)
+			{
+				String messageDescription = MethodDescriptorRegistry.getDescription(currentPath.callSiteId);
+				for (int i = 0; i < observers.length; i++)
+				{
+					observers[i].sendingMessage(senderRole, receiverRole, receiver, messageDescription);
+				}
+			}
 
-		// System.out.println("<< Now executing an instrumented stack frame push: " + methodDescription +
-		// " | SenderType: "
-		// + currentCaller.caller.getClass().getName() + " | ReceiverType: " + receiverType.getName() + " >>");
+			executionFrame.setHasMessageFrame(true);
 
-		MessageStackFrame frame = new MessageStackFrame(currentCaller.callDescription, methodDescription, senderRole, receiverRole);
-		currentPath.messageStack.push(frame);
-		// addMessageFrame(frame);
+			// System.out.println("<< Now executing an instrumented stack frame push: " + methodId +
+			// " | SenderType: "
+			// + currentPath.caller.getClass().getName() + " | ReceiverType: " + receiverType.getName() + " >>");
 
-		currentPath.pushingFrame = false;
+			currentPath.messageStack().push(currentPath.callSiteId, methodId, senderRole, receiverRole);
+		}
+		finally
+		{
+			currentPath.pushingFrame = false;
+		}
 	}
 
 	public static void popInvocationFrame()
@@ -387,29 +626,96 @@ public class ExecutionPath
 			return;
 		}
 
+		if (currentPath.executionStack == null)
+		{
+			return;
+		}
+
 		ExecutionStackFrame frame = currentPath.executionStack.pop();
-		// ExecutionStackFrame frame = removeExecutionFrame();
-		if ((frame != null) && frame.hasMessageFrame())
+		if (frame == null)
 		{
-			for (StackObserver observer : getObservers())
+			return;
+		}
+		if (currentPath.callerIndex != null)
+		{
+			currentPath.callerIndex.pop(currentPath.executionStack.size());
+		}
+
+		if (frame.hasMessageFrame())
+		{
+			StackObserver[] observers = currentPath.observers;
+			if (observers.length > 0)
 			{
-				observer.messageReturningFrom(lookupReceiverRole(frame.getReceiver()), frame.getReceiver());
+				TypeRole receiverRole = lookupReceiverRole(frame.getReceiver());
+				for (int i = 0; i < observers.length; i++)
+				{
+					observers[i].messageReturningFrom(receiverRole, frame.getReceiver());
+				}
 			}
 
-			removeMessageFrame();
+			currentPath.messageStack.pop();
 		}
+		frame.clear();
+	}
+
+	/**
+	 * Index the positions of <code>callerType</code> on every path, so that <code>getMostRecentCaller()</code> finds it
+	 * in constant time and <code>getPriorCaller()</code> visits only the frames of that type. Each path begins indexing
+	 * the type when it is first queried there, and thereafter pays a small cost on every push and pop whose receiver is
+	 * assignable to an indexed type.
+	 * 
+	 * @return false if the type could not be indexed because too many types are already indexed; queries for it will
+	 *         continue to walk the stack
+	 */
+	public static boolean indexCallerType(Class<?> callerType)
+	{
+		return CallerIndex.register(callerType);
+	}
+
+	private CallerIndex callerIndex()
+	{
+		if (callerIndex == null)
+		{
+			callerIndex = new CallerIndex();
+		}
+		return callerIndex;
 	}
 
 	@SuppressWarnings("unchecked")
 	public static <T> T getMostRecentCaller(Class<T> callerType)
 	{
 		ExecutionPath path = CURRENT_PATH.get();
-		for (ExecutionStackFrame frame : path.executionStack.iterateHistory())
+		int queryIndex = CallerIndex.getQueryIndex(callerType);
+		if (queryIndex >= 0)
+		{
+			CallerIndex index = path.callerIndex();
+			index.cover(queryIndex, path.executionStack);
+			if (index.getCount(queryIndex) > 0)
+			{
+				return (T) path.executionStack.get(index.getPosition(queryIndex, 0)).getReceiver();
+			}
+		}
+		else if (path.executionStack != null)
+		{
+			MethodInvocationStack<ExecutionStackFrame>.HistoryCursor history = path.executionStack.historyCursor();
+			while (history.hasNext())
+			{
+				Object receiver = history.next().getReceiver();
+				if ((receiver != null) && ((callerType == receiver.getClass()) || callerType.isAssignableFrom(receiver.getClass())))
+				{
+					return (T) receiver;
+				}
+			}
+		}
+		if (path.inherited != null)
 		{
-			Object receiver = frame.getReceiver();
-			if ((receiver != null) && ((callerType == receiver.getClass()) || callerType.isAssignableFrom(receiver.getClass())))
+			for (ReceiverChain node = path.inherited.receivers; !node.isEmpty(); node = node.tail)
 			{
-				return (T) receiver;
+				Object receiver = node.get();
+				if ((receiver != null) && ((callerType == receiver.getClass()) || callerType.isAssignableFrom(receiver.getClass())))
+				{
+					return (T) receiver;
+				}
 			}
 		}
 		return null;
@@ -420,11 +726,14 @@ public class ExecutionPath
 	{
 		boolean foundReference = false;
 		ExecutionPath path = CURRENT_PATH.get();
-		for (ExecutionStackFrame frame : path.executionStack.iterateHistory())
+		int queryIndex = CallerIndex.getQueryIndex(callerType);
+		if (queryIndex >= 0)
 		{
-			Object receiver = frame.getReceiver();
-			if ((receiver != null) && ((callerType == receiver.getClass()) || callerType.isAssignableFrom(receiver.getClass())))
+			CallerIndex index = path.callerIndex();
+			index.cover(queryIndex, path.executionStack);
+			for (int i = 0; i < index.getCount(queryIndex); i++)
 			{
+				Object receiver = path.executionStack.get(index.getPosition(queryIndex, i)).getReceiver();
 				if (receiver == referenceInstance)
 				{
 					foundReference = true;
@@ -435,14 +744,46 @@ public class ExecutionPath
 				}
 			}
 		}
+		else if (path.executionStack != null)
+		{
+			MethodInvocationStack<ExecutionStackFrame>.HistoryCursor history = path.executionStack.historyCursor();
+			while (history.hasNext())
+			{
+				Object receiver = history.next().getReceiver();
+				if ((receiver != null) && ((callerType == receiver.getClass()) || callerType.isAssignableFrom(receiver.getClass())))
+				{
+					if (receiver == referenceInstance)
+					{
+						foundReference = true;
+					}
+					else if (foundReference)
+					{
+						return (T) receiver;
+					}
+				}
+			}
+		}
+		if (path.inherited != null)
+		{
+			for (ReceiverChain node = path.inherited.receivers; !node.isEmpty(); node = node.tail)
+			{
+				Object receiver = node.get();
+				if ((receiver != null) && ((callerType == receiver.getClass()) || callerType.isAssignableFrom(receiver.getClass())))
+				{
+					if (receiver == referenceInstance)
+					{
+						foundReference = true;
+					}
+					else if (foundReference)
+					{
+						return (T) receiver;
+					}
+				}
+			}
+		}
 		return null;
 	}
 
-	private static boolean isInMetaMethod()
-	{
-		return CURRENT_PATH.get().executingMetaMethod;
-	}
-
 	public static void beginMetaMethod()
 	{
 		ExecutionPath path = CURRENT_PATH.get();
@@ -463,45 +804,127 @@ public class ExecutionPath
 		path.executingMetaMethod = false;
 	}
 
-	private static Set<StackObserver> getObservers()
+	/**
+	 * Pair this path with an observer for each factory currently registered in the <code>Universe</code>, keeping the
+	 * observers already created for factories that remain registered.
+	 */
+	private void refreshUniverseObservers(int generation)
+	{
+		StackObserver.Factory<?>[] factories = Universe.INSTANCE.factories;
+		StackObserver[] refreshed = new StackObserver[factories.length];
+		for (int i = 0; i < factories.length; i++)
+		{
+			for (int j = 0; j < universeFactories.length; j++)
+			{
+				if (universeFactories[j] == factories[i])
+				{
+					refreshed[i] = universeObservers[j];
+					break;
+				}
+			}
+			if (refreshed[i] == null)
+			{
+				refreshed[i] = factories[i].create();
+			}
+		}
+
+		universeFactories = factories;
+		universeObservers = refreshed;
+		observerGeneration = generation;
+		combineObservers();
+	}
+
+	private void combineObservers()
 	{
-		return CURRENT_PATH.get().observers;
+		if ((universeObservers.length + localObservers.length) == 0)
+		{
+			observers = NO_OBSERVERS;
+			return;
+		}
+
+		StackObserver[] combined = new StackObserver[universeObservers.length + localObservers.length];
+		System.arraycopy(universeObservers, 0, combined, 0, universeObservers.length);
+		System.arraycopy(localObservers, 0, combined, universeObservers.length, localObservers.length);
+		observers = combined;
 	}
 
 	public static void addObserver(StackObserver observer)
 	{
-		getObservers().add(observer);
+		ExecutionPath path = CURRENT_PATH.get();
+		for (StackObserver localObserver : path.localObservers)
+		{
+			if (localObserver == observer)
+			{
+				return;
+			}
+		}
+
+		StackObserver[] expanded = new StackObserver[path.localObservers.length + 1];
+		System.arraycopy(path.localObservers, 0, expanded, 0, path.localObservers.length);
+		expanded[expanded.length - 1] = observer;
+		path.localObservers = expanded;
+		path.combineObservers();
 	}
 
 	public static void removeObserver(StackObserver observer)
 	{
-		getObservers().remove(observer);
+		ExecutionPath path = CURRENT_PATH.get();
+		for (int i = 0; i < path.localObservers.length; i++)
+		{
+			if (path.localObservers[i] == observer)
+			{
+				StackObserver[] contracted = new StackObserver[path.localObservers.length - 1];
+				System.arraycopy(path.localObservers, 0, contracted, 0, i);
+				System.arraycopy(path.localObservers, i + 1, contracted, i, contracted.length - i);
+				path.localObservers = contracted;
+				path.combineObservers();
+				return;
+			}
+		}
 	}
 
 	public static <E extends Enum<E>> E getProperty(Class<E> key)
 	{
-		return CURRENT_PATH.get().properties.getProperty(key);
+		EnumeratedProperties properties = CURRENT_PATH.get().properties;
+		if (properties == null)
+		{
+			return null;
+		}
+		return properties.getProperty(key);
 	}
 
 	// @SafeVarargs
 	public static <E extends Enum<E>> PropertyStatus getPropertyStatus(E... queryValue)
 	{
-		return CURRENT_PATH.get().properties.getPropertyStatus(queryValue);
+		EnumeratedProperties properties = CURRENT_PATH.get().properties;
+		if (properties == null)
+		{
+			return PropertyStatus.DOMAIN_ABSENT;
+		}
+		return properties.getPropertyStatus(queryValue);
 	}
 
 	public static <E extends Enum<E>> void setProperty(Class<E> key, E value)
 	{
-		CURRENT_PATH.get().properties.setProperty(key, value);
+		CURRENT_PATH.get().properties().setProperty(key, value);
 	}
 
 	public static <E extends Enum<E>> void clearProperty(Class<E> key, E value)
 	{
-		CURRENT_PATH.get().properties.clearProperty(key, value);
+		EnumeratedProperties properties = CURRENT_PATH.get().properties;
+		if (properties != null)
+		{
+			properties.clearProperty(key, value);
+		}
 	}
 
 	public static <E extends Enum<E>> void clearDomain(Class<E> key)
 	{
-		CURRENT_PATH.get().properties.clearDomain(key);
+		EnumeratedProperties properties = CURRENT_PATH.get().properties;
+		if (properties != null)
+		{
+			properties.clearDomain(key);
+		}
 	}
 
 	public static void changeRole(Class<?> newRoleType)
@@ -509,7 +932,11 @@ public class ExecutionPath
 		TypeRole newRole = RoleRegistry.getRole(newRoleType);
 		if (getReceiverRole().allowsIdentityChange(newRole))
 		{
-			getCurrentFrame().setReceiverRole(newRole);
+			MessageStack stack = CURRENT_PATH.get().messageStack;
+			if (stack != null)
+			{
+				stack.setCurrentReceiverRole(newRole);
+			}
 		}
 		else
 		{
@@ -519,10 +946,14 @@ public class ExecutionPath
 
 	public static void printStack(PrintStream out, String methodName, Class<?> type)
 	{
-		MethodInvocationStack<MessageStackFrame> stack = CURRENT_PATH.get().messageStack;
-		for (int i = stack.stack.size() - 1; i >= 0; i--)
+		MessageStack stack = CURRENT_PATH.get().messageStack;
+		if (stack == null)
+		{
+			out.println();
+			return;
+		}
+		for (MessageStackFrame frame : stack.iterateHistory())
 		{
-			MessageStackFrame frame = stack.stack.get(i);
 			out.println(frame.getInvocationDescription() + " | " + frame.getMethodDescription());
 			out.println("        {sender: " + frame.getSenderRole() + "; receiver: " + frame.getReceiverRole() + "}");
 		}
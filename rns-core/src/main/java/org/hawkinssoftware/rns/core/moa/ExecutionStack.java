@@ -10,9 +10,6 @@
  */
 package org.hawkinssoftware.rns.core.moa;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * DOC comment task awaits.
  * 
@@ -20,44 +17,95 @@ import java.util.Map;
  */
 public class ExecutionStack extends MethodInvocationStack<ExecutionStackFrame>
 {
-	final Map<ExecutionContext.Key<?>, ExecutionContext> clientContexts = new HashMap<ExecutionContext.Key<?>, ExecutionContext>();
+	private static final ExecutionContext[] NO_CONTEXTS = new ExecutionContext[0];
+
+	// indexed by ExecutionContext.Key.slot; grown to the highest slot installed
+	private ExecutionContext[] clientContexts = NO_CONTEXTS;
+	private int activeContextCount = 0;
+
+	ExecutionStack(int initialCapacity)
+	{
+		super(initialCapacity);
+	}
 
 	@Override
-	void push(ExecutionStackFrame frame)
+	ExecutionStackFrame createFrame()
+	{
+		return new ExecutionStackFrame();
+	}
+
+	ExecutionStackFrame push(Object receiver, int methodId)
 	{
-		super.push(frame);
+		ExecutionStackFrame frame = super.push();
+		frame.set(receiver, methodId);
 
-		for (ExecutionContext context : clientContexts.values())
+		if (activeContextCount > 0)
 		{
-			context.pushFrame(frame);
+			ExecutionContext[] contexts = clientContexts;
+			for (int i = 0; i < contexts.length; i++)
+			{
+				if (contexts[i] != null)
+				{
+					contexts[i].pushFrame(frame);
+				}
+			}
 		}
+		return frame;
 	}
 
 	@Override
 	ExecutionStackFrame pop()
 	{
 		ExecutionStackFrame pop = super.pop();
-		for (ExecutionContext context : clientContexts.values())
+		if (activeContextCount > 0)
 		{
-			context.popFromFrame(pop);
+			ExecutionContext[] contexts = clientContexts;
+			for (int i = 0; i < contexts.length; i++)
+			{
+				if (contexts[i] != null)
+				{
+					contexts[i].popFromFrame(pop);
+				}
+			}
 		}
 		return pop;
 	}
 
 	<ContextType extends ExecutionContext> void installContext(ExecutionContext.Key<ContextType> key, ContextType context)
 	{
-		clientContexts.put(key, context);
+		if (key.slot >= clientContexts.length)
+		{
+			ExecutionContext[] expanded = new ExecutionContext[key.slot + 1];
+			System.arraycopy(clientContexts, 0, expanded, 0, clientContexts.length);
+			clientContexts = expanded;
+		}
+		if (clientContexts[key.slot] == null)
+		{
+			activeContextCount++;
+		}
+		clientContexts[key.slot] = context;
 		context.entryFrame = peek();
 	}
 
 	@SuppressWarnings("unchecked")
 	<ContextType extends ExecutionContext> ContextType getContext(ExecutionContext.Key<ContextType> key)
 	{
-		return (ContextType) clientContexts.get(key);
+		if (key.slot >= clientContexts.length)
+		{
+			return null;
+		}
+		return (ContextType) clientContexts[key.slot];
 	}
 
 	void removeContext(ExecutionContext.Key<?> key)
 	{
-		clientContexts.remove(key).close();
+		if ((key.slot >= clientContexts.length) || (clientContexts[key.slot] == null))
+		{
+			return;
+		}
+		ExecutionContext context = clientContexts[key.slot];
+		clientContexts[key.slot] = null;
+		activeContextCount--;
+		context.close();
 	}
 }
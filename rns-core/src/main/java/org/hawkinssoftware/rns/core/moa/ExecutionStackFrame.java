@@ -17,15 +17,45 @@ package org.hawkinssoftware.rns.core.moa;
  */
 public class ExecutionStackFrame
 {
-	private final Object receiver;
-	private final String methodDescription;
+	private Object receiver;
+	private int methodId;
 	
 	private boolean hasMessageFrame = false;
 
-	public ExecutionStackFrame(Object receiver, String methodDescription)
+	// receivers as of this frame, cached by ExecutionPath.capture() on top of capturedBase; reset when recycled
+	ReceiverChain capturedReceivers;
+	ReceiverChain capturedBase;
+
+	ExecutionStackFrame()
+	{
+	}
+
+	public ExecutionStackFrame(Object receiver, int methodId)
+	{
+		this.receiver = receiver;
+		this.methodId = methodId;
+	}
+
+	/**
+	 * Recycle this frame for a new method entry.
+	 */
+	void set(Object receiver, int methodId)
 	{
 		this.receiver = receiver;
-		this.methodDescription = methodDescription;
+		this.methodId = methodId;
+		hasMessageFrame = false;
+		capturedReceivers = null;
+		capturedBase = null;
+	}
+
+	/**
+	 * Release the receiver reference when the frame is popped, so the idle slot doesn't keep it reachable.
+	 */
+	void clear()
+	{
+		receiver = null;
+		capturedReceivers = null;
+		capturedBase = null;
 	}
 
 	public Object getReceiver()
@@ -33,9 +63,14 @@ public class ExecutionStackFrame
 		return receiver;
 	}
 	
+	public int getMethodId()
+	{
+		return methodId;
+	}
+
 	public String getMethodDescription()
 	{
-		return methodDescription;
+		return MethodDescriptorRegistry.getDescription(methodId);
 	}
 	
 	public boolean hasMessageFrame()
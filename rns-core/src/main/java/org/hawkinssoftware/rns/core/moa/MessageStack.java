@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2011 HawkinsSoftware
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Byron Hawkins of HawkinsSoftware
+ */
+package org.hawkinssoftware.rns.core.moa;
+
+import org.hawkinssoftware.rns.core.role.TypeRole;
+
+/**
+ * Stack of <code>MessageStackFrame</code>s, one for each method entry on the <code>ExecutionPath</code> where either the
+ * sender or the receiver has a <code>CommunicationRole</code>. Both implementations support every operation: the
+ * default <code>RecyclingMessageStack</code> recycles its frame slots and copies itself for a snapshot, while the
+ * <code>PersistentMessageStack</code> allocates an immutable node per push and is its own snapshot.
+ * 
+ * @author Byron Hawkins
+ */
+interface MessageStack
+{
+	void push(int invocationId, int methodId, TypeRole senderRole, TypeRole receiverRole);
+
+	/**
+	 * Pop the top frame, if any. An unbalanced pop is tolerated, since the stack may be empty because of an
+	 * instrumentation problem which would otherwise be obscured.
+	 */
+	void pop();
+
+	/**
+	 * @throws IndexOutOfBoundsException
+	 *             if the stack is empty
+	 */
+	MessageStackFrame peek();
+
+	boolean isEmpty();
+
+	int size();
+
+	/**
+	 * Change the receiver role of the top frame, if any.
+	 */
+	void setCurrentReceiverRole(TypeRole receiverRole);
+
+	/**
+	 * Iterate the frames from the top of the stack to the bottom. The iteration is fail-fast: it throws
+	 * <code>IllegalStateException</code> if the stack has been pushed or popped since it began.
+	 */
+	Iterable<? extends MessageStackFrame> iterateHistory();
+
+	/**
+	 * Push the frames of <code>inherited</code> onto this stack, bottom first, e.g. on behalf of a task submitted from
+	 * another thread. Undo with <code>restore()</code>.
+	 */
+	void inherit(MessageStackSnapshot inherited);
+
+	/**
+	 * Pop frames until the stack is no deeper than <code>depth</code>.
+	 */
+	void restore(int depth);
+
+	/**
+	 * Capture the frames in an immutable snapshot.
+	 */
+	MessageStackSnapshot snapshot();
+}
@@ -13,51 +13,30 @@ package org.hawkinssoftware.rns.core.moa;
 import org.hawkinssoftware.rns.core.role.TypeRole;
 
 /**
- * DOC comment task awaits.
+ * One message on the <code>ExecutionPath</code>'s message stack: the call site and the entered method, with the roles
+ * of the sender and the receiver. A frame obtained from the live stack may be recycled once it is popped (unless the
+ * path runs in the "persistent-message-stack" mode), whereas the frames of a <code>MessageStackSnapshot</code> never
+ * change.
  * 
  * @author Byron Hawkins
  */
-public class MessageStackFrame
+public interface MessageStackFrame
 {
-	static final MessageStackFrame EMPTY = new MessageStackFrame("<empty", "<empty>", TypeRole.NONE, TypeRole.NONE);
+	/**
+	 * @return the id of the call site in the <code>MethodDescriptorRegistry</code>
+	 */
+	int getInvocationId();
 
-	private final String invocationDescription;
-	private final String methodDescription;
+	/**
+	 * @return the id of the entered method in the <code>MethodDescriptorRegistry</code>
+	 */
+	int getMethodId();
 
-	private final TypeRole senderRole;
-	private TypeRole receiverRole;
+	String getInvocationDescription();
 
-	public MessageStackFrame(String invocationDescription, String methodDescription, TypeRole senderRole, TypeRole receiverRole)
-	{
-		this.invocationDescription = invocationDescription;
-		this.methodDescription = methodDescription;
+	String getMethodDescription();
 
-		this.senderRole = senderRole;
-		this.receiverRole = receiverRole;
-	}
+	TypeRole getSenderRole();
 
-	public String getInvocationDescription()
-	{
-		return invocationDescription;
-	}
-
-	public String getMethodDescription()
-	{
-		return methodDescription;
-	}
-
-	public TypeRole getReceiverRole()
-	{
-		return receiverRole;
-	}
-
-	void setReceiverRole(TypeRole receiverRole)
-	{
-		this.receiverRole = receiverRole;
-	}
-
-	public TypeRole getSenderRole()
-	{
-		return senderRole;
-	}
+	TypeRole getReceiverRole();
 }
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2011 HawkinsSoftware
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Byron Hawkins of HawkinsSoftware
+ */
+package org.hawkinssoftware.rns.core.moa;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.hawkinssoftware.rns.core.role.TypeRole;
+
+/**
+ * Immutable message stack: the top frame, linked to the snapshot of the frames beneath it. Snapshots share their tails,
+ * so pushing a frame onto a snapshot or retaining a snapshot of a live stack requires no copying. A snapshot may be
+ * freely handed to another thread, attached to an exception or logged later, since it never changes.
+ * <p>
+ * Iteration visits the frames from the top of the stack to the bottom.
+ * 
+ * @author Byron Hawkins
+ */
+public class MessageStackSnapshot implements MessageStackFrame, Iterable<MessageStackFrame>
+{
+	private static final int EMPTY_ID = MethodDescriptorRegistry.register("<empty>");
+
+	/**
+	 * The snapshot of an empty stack, which is also the frame reported by <code>ExecutionPath.getCurrentFrame()</code>
+	 * when the stack is empty.
+	 */
+	public static final MessageStackSnapshot EMPTY = new MessageStackSnapshot();
+
+	private final int invocationId;
+	private final int methodId;
+
+	private final TypeRole senderRole;
+	private final TypeRole receiverRole;
+
+	private final MessageStackSnapshot tail;
+	private final int depth;
+
+	private MessageStackSnapshot()
+	{
+		invocationId = EMPTY_ID;
+		methodId = EMPTY_ID;
+		senderRole = TypeRole.NONE;
+		receiverRole = TypeRole.NONE;
+		tail = null;
+		depth = 0;
+	}
+
+	MessageStackSnapshot(int invocationId, int methodId, TypeRole senderRole, TypeRole receiverRole, MessageStackSnapshot tail)
+	{
+		this.invocationId = invocationId;
+		this.methodId = methodId;
+		this.senderRole = senderRole;
+		this.receiverRole = receiverRole;
+		this.tail = tail;
+		this.depth = tail.depth + 1;
+	}
+
+	/**
+	 * @return a snapshot having the same frames as this one, except that the top frame has <code>receiverRole</code>
+	 */
+	MessageStackSnapshot withReceiverRole(TypeRole receiverRole)
+	{
+		return new MessageStackSnapshot(getInvocationId(), getMethodId(), getSenderRole(), receiverRole, tail);
+	}
+
+	@Override
+	public int getInvocationId()
+	{
+		return invocationId;
+	}
+
+	@Override
+	public int getMethodId()
+	{
+		return methodId;
+	}
+
+	@Override
+	public String getInvocationDescription()
+	{
+		return MethodDescriptorRegistry.getDescription(invocationId);
+	}
+
+	@Override
+	public String getMethodDescription()
+	{
+		return MethodDescriptorRegistry.getDescription(methodId);
+	}
+
+	@Override
+	public TypeRole getSenderRole()
+	{
+		return senderRole;
+	}
+
+	@Override
+	public TypeRole getReceiverRole()
+	{
+		return receiverRole;
+	}
+
+	/**
+	 * @return the snapshot of the frames beneath this one, or null if this snapshot is empty
+	 */
+	public MessageStackSnapshot getTail()
+	{
+		return tail;
+	}
+
+	public int getDepth()
+	{
+		return depth;
+	}
+
+	public boolean isEmpty()
+	{
+		return depth == 0;
+	}
+
+	/**
+	 * @return the frames of this snapshot in order from the bottom of the stack to the top, for pushing onto a stack
+	 *         without recursing once per frame
+	 */
+	MessageStackSnapshot[] toArrayFromBottom()
+	{
+		MessageStackSnapshot[] frames = new MessageStackSnapshot[depth];
+		MessageStackSnapshot frame = this;
+		for (int i = depth - 1; i >= 0; i--)
+		{
+			frames[i] = frame;
+			frame = frame.tail;
+		}
+		return frames;
+	}
+
+	@Override
+	public Iterator<MessageStackFrame> iterator()
+	{
+		return new Iterator<MessageStackFrame>() {
+			private MessageStackSnapshot next = MessageStackSnapshot.this;
+
+			@Override
+			public boolean hasNext()
+			{
+				return next.depth > 0;
+			}
+
+			@Override
+			public MessageStackFrame next()
+			{
+				if (next.depth == 0)
+				{
+					throw new NoSuchElementException();
+				}
+				MessageStackFrame frame = next;
+				next = next.tail;
+				return frame;
+			}
+
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException("A message stack snapshot is immutable.");
+			}
+		};
+	}
+}
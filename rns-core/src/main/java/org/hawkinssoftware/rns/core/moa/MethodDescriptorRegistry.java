@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2011 HawkinsSoftware
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Byron Hawkins of HawkinsSoftware
+ */
+package org.hawkinssoftware.rns.core.moa;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hawkinssoftware.rns.core.publication.InvocationConstraint;
+
+/**
+ * Global table of method and call site descriptions (e.g. <code>"Foo.bar()"</code>), each identified by a compact int.
+ * The RNS agent registers every description at class transformation time and instruments the int constant, so the
+ * <code>ExecutionPath</code> carries only ints on the hot path and resolves the description when it is actually
+ * displayed.
+ * 
+ * @author Byron Hawkins
+ */
+public class MethodDescriptorRegistry
+{
+	/**
+	 * Identifies a method or call site that was never registered.
+	 */
+	public static final int UNKNOWN = 0;
+
+	private static final String UNKNOWN_DESCRIPTION = "<unknown>";
+
+	private static final Map<String, Integer> idsByDescription = new HashMap<String, Integer>();
+
+	// copy-on-grow; republished on every registration so that lock-free readers see the new entry
+	private static volatile String[] descriptions = new String[256];
+	private static int count = 1;
+
+	static
+	{
+		descriptions[UNKNOWN] = UNKNOWN_DESCRIPTION;
+	}
+
+	/**
+	 * Get the id of <code>description</code>, registering it if necessary. Identical descriptions share an id.
+	 */
+	@InvocationConstraint(packages = { InvocationConstraint.MY_PACKAGE, "org.hawkinssoftware.rns.agent.*" })
+	public static synchronized int register(String description)
+	{
+		Integer id = idsByDescription.get(description);
+		if (id != null)
+		{
+			return id;
+		}
+
+		String[] table = descriptions;
+		if (count == table.length)
+		{
+			String[] expanded = new String[table.length * 2];
+			System.arraycopy(table, 0, expanded, 0, table.length);
+			table = expanded;
+		}
+		table[count] = description;
+		descriptions = table;
+
+		idsByDescription.put(description, count);
+		return count++;
+	}
+
+	public static String getDescription(int id)
+	{
+		String[] table = descriptions;
+		if ((id <= UNKNOWN) || (id >= table.length))
+		{
+			return UNKNOWN_DESCRIPTION;
+		}
+
+		String description = table[id];
+		return (description == null) ? UNKNOWN_DESCRIPTION : description;
+	}
+}
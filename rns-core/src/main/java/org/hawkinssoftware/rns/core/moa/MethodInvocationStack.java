@@ -10,68 +10,176 @@
  */
 package org.hawkinssoftware.rns.core.moa;
 
-import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.List;
-import java.util.Set;
 
 /**
- * DOC comment task awaits.
+ * Thread-confined stack of method invocation frames. The frames are mutable slots which are allocated the first time
+ * the stack reaches their depth and are recycled by every subsequent push to that depth, so a push/pop pair allocates
+ * nothing once the stack has reached its working depth. Consequently a frame reference is only meaningful while that
+ * frame remains on the stack.
+ * <p>
+ * History iteration is fail-fast: every push and pop advances a modification count, and an iterator or cursor which
+ * observes a different count than it started with throws <code>IllegalStateException</code>. Since the stack is
+ * thread-confined, none of this requires synchronization.
  * 
  * @param <FrameType>
  *            the generic type
  * @author Byron Hawkins
  */
-public class MethodInvocationStack<FrameType>
+public abstract class MethodInvocationStack<FrameType>
 {
-	final List<FrameType> stack = new ArrayList<FrameType>();
-	final Set<HistoryIterator> historyIterators = new HashSet<HistoryIterator>();
+	private Object[] frames;
+	private int size = 0;
+	private int modificationCount = 0;
 
-	void push(FrameType frame)
+	// allocated on first use and reset by each call to historyCursor()
+	private HistoryCursor cursor = null;
+
+	/**
+	 * @param initialCapacity
+	 *            number of frame slots to allocate up front; the slot array doubles whenever it is exceeded
+	 */
+	MethodInvocationStack(int initialCapacity)
 	{
-		invalidateHistoryIterator();
-		stack.add(frame);
+		frames = new Object[Math.max(1, initialCapacity)];
 	}
 
+	abstract FrameType createFrame();
+
+	/**
+	 * Push a recycled frame slot onto the stack, for the caller to populate.
+	 */
+	@SuppressWarnings("unchecked")
+	FrameType push()
+	{
+		modificationCount++;
+
+		if (size == frames.length)
+		{
+			Object[] expanded = new Object[frames.length * 2];
+			System.arraycopy(frames, 0, expanded, 0, frames.length);
+			frames = expanded;
+		}
+
+		FrameType frame = (FrameType) frames[size];
+		if (frame == null)
+		{
+			frame = createFrame();
+			frames[size] = frame;
+		}
+		size++;
+		return frame;
+	}
+
+	@SuppressWarnings("unchecked")
 	FrameType peek()
 	{
-		return stack.get(stack.size() - 1);
+		if (size == 0)
+		{
+			throw new IndexOutOfBoundsException("Attempt to peek at an empty stack.");
+		}
+		return (FrameType) frames[size - 1];
 	}
 
+	/**
+	 * Pop the top frame slot off the stack. The slot remains valid until the next push.
+	 */
+	@SuppressWarnings("unchecked")
 	FrameType pop()
 	{
-		invalidateHistoryIterator();
+		modificationCount++;
 
-		if (stack.isEmpty())
+		if (size == 0)
 		{
 			// this is lame, but if the stack is empty because of an instrumentation problem, an instrumentation
 			// exception may otherwise be obscured by ArrayIndexOutOfBounds
 			return null;
 		}
-		return stack.remove(stack.size() - 1);
+		size--;
+		return (FrameType) frames[size];
 	}
 
 	boolean isEmpty()
 	{
-		return stack.isEmpty();
+		return size == 0;
+	}
+
+	int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @param index
+	 *            depth from the bottom of the stack
+	 */
+	@SuppressWarnings("unchecked")
+	FrameType get(int index)
+	{
+		if ((index < 0) || (index >= size))
+		{
+			throw new IndexOutOfBoundsException("Stack index " + index + " out of bounds for size " + size);
+		}
+		return (FrameType) frames[index];
 	}
 
 	Iterable<FrameType> iterateHistory()
 	{
-		synchronized (historyIterators)
+		return new HistoryIterator();
+	}
+
+	/**
+	 * Get this stack's reusable cursor, positioned at the top of the stack. Walking the history with the cursor
+	 * allocates nothing, but there is only one cursor per stack: a second call resets it, so the caller must not
+	 * invoke anything that walks the same stack while using the cursor.
+	 */
+	HistoryCursor historyCursor()
+	{
+		if (cursor == null)
 		{
-			HistoryIterator iterator = new HistoryIterator();
-			historyIterators.add(iterator);
-			return iterator;
+			cursor = new HistoryCursor();
 		}
+		cursor.reset();
+		return cursor;
 	}
 
-	private void invalidateHistoryIterator()
+	private void checkModificationCount(int expectedModificationCount)
 	{
-		synchronized (historyIterators)
+		if (modificationCount != expectedModificationCount)
 		{
-			historyIterators.clear();
+			throw new IllegalStateException("This iterator is no longer valid because the stack has changed since this iterator was created.");
+		}
+	}
+
+	/**
+	 * Reverse cursor over the frames of the stack, from top to bottom.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	class HistoryCursor
+	{
+		private int index;
+		private int expectedModificationCount;
+
+		private void reset()
+		{
+			index = size - 1;
+			expectedModificationCount = modificationCount;
+		}
+
+		boolean hasNext()
+		{
+			checkModificationCount(expectedModificationCount);
+			return index >= 0;
+		}
+
+		FrameType next()
+		{
+			checkModificationCount(expectedModificationCount);
+
+			FrameType frame = get(index);
+			index--;
+			return frame;
 		}
 	}
 
@@ -82,7 +190,8 @@ public class MethodInvocationStack<FrameType>
 	 */
 	private class HistoryIterator implements Iterator<FrameType>, Iterable<FrameType>
 	{
-		private int index = stack.size() - 1;
+		private int index = size - 1;
+		private final int expectedModificationCount = modificationCount;
 
 		@Override
 		public Iterator<FrameType> iterator()
@@ -93,22 +202,16 @@ public class MethodInvocationStack<FrameType>
 		@Override
 		public boolean hasNext()
 		{
-			if (!historyIterators.contains(this))
-			{
-				throw new IllegalStateException("This iterator is no longer valid because th stack has changed since this iterator was created.");
-			}
+			checkModificationCount(expectedModificationCount);
 			return index >= 0;
 		}
 
 		@Override
 		public FrameType next()
 		{
-			if (!historyIterators.contains(this))
-			{
-				throw new IllegalStateException("This iterator is no longer valid because th stack has changed since this iterator was created.");
-			}
+			checkModificationCount(expectedModificationCount);
 
-			FrameType frame = stack.get(index);
+			FrameType frame = get(index);
 			index--;
 			return frame;
 		}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2011 HawkinsSoftware
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Byron Hawkins of HawkinsSoftware
+ */
+package org.hawkinssoftware.rns.core.moa;
+
+/**
+ * The state of one thread's <code>ExecutionPath</code> as it stood when a task was submitted to another thread. It
+ * holds the message stack snapshot, the receivers on the execution stack, and the pending caller, so that the task
+ * runs as if its frames were pushed on top of the submitting path. Obtained from <code>ExecutionPath.capture()</code>
+ * and normally applied by the decorators of <code>PathPropagation</code>.
+ * 
+ * @author Byron Hawkins
+ */
+public class PathInheritance
+{
+	/**
+	 * Nothing to inherit: the submitting path was empty.
+	 */
+	public static final PathInheritance NONE = new PathInheritance(MessageStackSnapshot.EMPTY, ReceiverChain.EMPTY, null, MethodDescriptorRegistry.UNKNOWN, null, -1);
+
+	final MessageStackSnapshot messages;
+	// receivers of the submitting execution stack (and of any path it inherited), most recent first
+	final ReceiverChain receivers;
+	final Class<?> caller;
+	final int callSiteId;
+
+	// top frame of the submitting execution stack and its index, to recognize a task run by the submitting thread itself
+	final ExecutionStackFrame origin;
+	final int originIndex;
+
+	PathInheritance(MessageStackSnapshot messages, ReceiverChain receivers, Class<?> caller, int callSiteId, ExecutionStackFrame origin, int originIndex)
+	{
+		this.messages = messages;
+		this.receivers = receivers;
+		this.caller = caller;
+		this.callSiteId = callSiteId;
+		this.origin = origin;
+		this.originIndex = originIndex;
+	}
+
+	public MessageStackSnapshot getMessages()
+	{
+		return messages;
+	}
+
+	public boolean isEmpty()
+	{
+		return this == NONE;
+	}
+}
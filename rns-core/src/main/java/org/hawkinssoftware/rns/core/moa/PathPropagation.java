@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2011 HawkinsSoftware
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Byron Hawkins of HawkinsSoftware
+ */
+package org.hawkinssoftware.rns.core.moa;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Carries the <code>ExecutionPath</code> of a submitting thread over to the thread which runs the submitted task. Each
+ * decorator captures the path when it is created, and for the duration of the task installs it beneath the worker's
+ * own frames, so that role validation, <code>getCallerRole()</code> and <code>getMostRecentCaller()</code> see the
+ * sender context. A task decorated on a thread with an empty path is returned undecorated, and a task which is not
+ * decorated pays nothing.
+ * <p>
+ * A <code>ForkJoinPool</code> may be wrapped like any other <code>ExecutorService</code>, though tasks forked from
+ * within a running <code>ForkJoinTask</code> must be decorated individually with <code>wrap(ForkJoinTask)</code>. For
+ * a <code>CompletableFuture</code>, pass a wrapped executor to the <code>*Async</code> methods.
+ * 
+ * @author Byron Hawkins
+ */
+public class PathPropagation
+{
+	public static Runnable wrap(Runnable task)
+	{
+		PathInheritance inheritance = ExecutionPath.capture();
+		if (inheritance.isEmpty())
+		{
+			return task;
+		}
+		return new PropagatingRunnable(task, inheritance);
+	}
+
+	public static <V> Callable<V> wrap(Callable<V> task)
+	{
+		PathInheritance inheritance = ExecutionPath.capture();
+		if (inheritance.isEmpty())
+		{
+			return task;
+		}
+		return new PropagatingCallable<V>(task, inheritance);
+	}
+
+	/**
+	 * @return a task which invokes <code>task</code> within the current path; it must be forked in place of
+	 *         <code>task</code>
+	 */
+	public static <V> ForkJoinTask<V> wrap(final ForkJoinTask<V> task)
+	{
+		PathInheritance inheritance = ExecutionPath.capture();
+		if (inheritance.isEmpty())
+		{
+			return task;
+		}
+		return ForkJoinTask.adapt(new PropagatingCallable<V>(new Callable<V>() {
+			@Override
+			public V call()
+			{
+				return task.invoke();
+			}
+		}, inheritance));
+	}
+
+	/**
+	 * @return an executor which decorates each task with the path of the thread that submits it
+	 */
+	public static Executor wrap(Executor executor)
+	{
+		return new PropagatingExecutor(executor);
+	}
+
+	/**
+	 * @return an executor service which decorates each task with the path of the thread that submits it
+	 */
+	public static ExecutorService wrap(ExecutorService executor)
+	{
+		return new PropagatingExecutorService(executor);
+	}
+
+	private static <T> List<Callable<T>> wrapAll(Collection<? extends Callable<T>> tasks)
+	{
+		List<Callable<T>> wrapped = new ArrayList<Callable<T>>(tasks.size());
+		for (Callable<T> task : tasks)
+		{
+			wrapped.add(wrap(task));
+		}
+		return wrapped;
+	}
+
+	/**
+	 * Runs the task within the path captured when it was wrapped, restoring the worker's own path afterwards.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	private static class PropagatingRunnable implements Runnable
+	{
+		private final Runnable task;
+		private final PathInheritance inheritance;
+
+		PropagatingRunnable(Runnable task, PathInheritance inheritance)
+		{
+			this.task = task;
+			this.inheritance = inheritance;
+		}
+
+		@Override
+		public void run()
+		{
+			ExecutionPath.Restoration restoration = ExecutionPath.inherit(inheritance);
+			try
+			{
+				task.run();
+			}
+			finally
+			{
+				ExecutionPath.restore(restoration);
+			}
+		}
+	}
+
+	/**
+	 * Calls the task within the path captured when it was wrapped, restoring the worker's own path afterwards.
+	 * 
+	 * @param <V>
+	 *            the result type of the task
+	 * @author Byron Hawkins
+	 */
+	private static class PropagatingCallable<V> implements Callable<V>
+	{
+		private final Callable<V> task;
+		private final PathInheritance inheritance;
+
+		PropagatingCallable(Callable<V> task, PathInheritance inheritance)
+		{
+			this.task = task;
+			this.inheritance = inheritance;
+		}
+
+		@Override
+		public V call() throws Exception
+		{
+			ExecutionPath.Restoration restoration = ExecutionPath.inherit(inheritance);
+			try
+			{
+				return task.call();
+			}
+			finally
+			{
+				ExecutionPath.restore(restoration);
+			}
+		}
+	}
+
+	/**
+	 * Wraps each command with the path of the thread that calls <code>execute()</code>.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	private static class PropagatingExecutor implements Executor
+	{
+		private final Executor delegate;
+
+		PropagatingExecutor(Executor delegate)
+		{
+			this.delegate = delegate;
+		}
+
+		@Override
+		public void execute(Runnable command)
+		{
+			delegate.execute(wrap(command));
+		}
+	}
+
+	/**
+	 * Wraps each task with the path of the thread that submits it; lifecycle methods pass straight through to the
+	 * delegate.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	private static class PropagatingExecutorService implements ExecutorService
+	{
+		private final ExecutorService delegate;
+
+		PropagatingExecutorService(ExecutorService delegate)
+		{
+			this.delegate = delegate;
+		}
+
+		@Override
+		public void execute(Runnable command)
+		{
+			delegate.execute(wrap(command));
+		}
+
+		@Override
+		public <T> Future<T> submit(Callable<T> task)
+		{
+			return delegate.submit(wrap(task));
+		}
+
+		@Override
+		public <T> Future<T> submit(Runnable task, T result)
+		{
+			return delegate.submit(wrap(task), result);
+		}
+
+		@Override
+		public Future<?> submit(Runnable task)
+		{
+			return delegate.submit(wrap(task));
+		}
+
+		@Override
+		public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException
+		{
+			return delegate.invokeAll(wrapAll(tasks));
+		}
+
+		@Override
+		public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) throws InterruptedException
+		{
+			return delegate.invokeAll(wrapAll(tasks), timeout, unit);
+		}
+
+		@Override
+		public <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException
+		{
+			return delegate.invokeAny(wrapAll(tasks));
+		}
+
+		@Override
+		public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+				TimeoutException
+		{
+			return delegate.invokeAny(wrapAll(tasks), timeout, unit);
+		}
+
+		@Override
+		public void shutdown()
+		{
+			delegate.shutdown();
+		}
+
+		@Override
+		public List<Runnable> shutdownNow()
+		{
+			return delegate.shutdownNow();
+		}
+
+		@Override
+		public boolean isShutdown()
+		{
+			return delegate.isShutdown();
+		}
+
+		@Override
+		public boolean isTerminated()
+		{
+			return delegate.isTerminated();
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+		{
+			return delegate.awaitTermination(timeout, unit);
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2011 HawkinsSoftware
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Byron Hawkins of HawkinsSoftware
+ */
+package org.hawkinssoftware.rns.core.moa;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.hawkinssoftware.rns.core.role.TypeRole;
+
+/**
+ * Message stack implemented as a chain of immutable <code>MessageStackSnapshot</code>s, so that <code>snapshot()</code>
+ * simply returns the current top of the chain. Each push allocates one small node in place of recycling a frame slot;
+ * a pop allocates nothing. Frames returned by this stack are never recycled, so they remain valid after they are
+ * popped.
+ * 
+ * @author Byron Hawkins
+ */
+class PersistentMessageStack implements MessageStack
+{
+	private MessageStackSnapshot top = MessageStackSnapshot.EMPTY;
+	private int modificationCount = 0;
+
+	@Override
+	public void push(int invocationId, int methodId, TypeRole senderRole, TypeRole receiverRole)
+	{
+		modificationCount++;
+		top = new MessageStackSnapshot(invocationId, methodId, senderRole, receiverRole, top);
+	}
+
+	@Override
+	public void pop()
+	{
+		modificationCount++;
+		if (!top.isEmpty())
+		{
+			top = top.getTail();
+		}
+	}
+
+	@Override
+	public MessageStackFrame peek()
+	{
+		if (top.isEmpty())
+		{
+			throw new IndexOutOfBoundsException("Attempt to peek at an empty stack.");
+		}
+		return top;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return top.isEmpty();
+	}
+
+	@Override
+	public int size()
+	{
+		return top.getDepth();
+	}
+
+	@Override
+	public void setCurrentReceiverRole(TypeRole receiverRole)
+	{
+		if (!top.isEmpty())
+		{
+			top = top.withReceiverRole(receiverRole);
+		}
+	}
+
+	@Override
+	public Iterable<? extends MessageStackFrame> iterateHistory()
+	{
+		return new HistoryIterator();
+	}
+
+	/**
+	 * An empty stack simply adopts <code>inherited</code> in constant time; otherwise its frames are pushed on top.
+	 */
+	@Override
+	public void inherit(MessageStackSnapshot inherited)
+	{
+		if (top.isEmpty())
+		{
+			modificationCount++;
+			top = inherited;
+		}
+		else
+		{
+			for (MessageStackSnapshot frame : inherited.toArrayFromBottom())
+			{
+				push(frame.getInvocationId(), frame.getMethodId(), frame.getSenderRole(), frame.getReceiverRole());
+			}
+		}
+	}
+
+	@Override
+	public void restore(int depth)
+	{
+		modificationCount++;
+		while (top.getDepth() > depth)
+		{
+			top = top.getTail();
+		}
+	}
+
+	@Override
+	public MessageStackSnapshot snapshot()
+	{
+		return top;
+	}
+
+	/**
+	 * Walks the chain from the top node at the time of creation, failing fast like the recycling stack's iterator
+	 * although the chain itself can not change.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	private class HistoryIterator implements Iterator<MessageStackFrame>, Iterable<MessageStackFrame>
+	{
+		private MessageStackSnapshot next = top;
+		private final int expectedModificationCount = modificationCount;
+
+		@Override
+		public Iterator<MessageStackFrame> iterator()
+		{
+			return this;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			checkModificationCount();
+			return !next.isEmpty();
+		}
+
+		@Override
+		public MessageStackFrame next()
+		{
+			checkModificationCount();
+			if (next.isEmpty())
+			{
+				throw new NoSuchElementException();
+			}
+			MessageStackFrame frame = next;
+			next = next.getTail();
+			return frame;
+		}
+
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException("No removal of stack frames via iteration!");
+		}
+
+		private void checkModificationCount()
+		{
+			if (modificationCount != expectedModificationCount)
+			{
+				throw new IllegalStateException("This iterator is no longer valid because the stack has changed since this iterator was created.");
+			}
+		}
+	}
+}
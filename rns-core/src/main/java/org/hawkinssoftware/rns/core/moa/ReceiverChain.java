@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2011 HawkinsSoftware
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Byron Hawkins of HawkinsSoftware
+ */
+package org.hawkinssoftware.rns.core.moa;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Immutable chain of the receivers on an execution stack, most recent first, ending with the receivers the path
+ * inherited from a submitting thread (if any). Each execution frame caches the chain as of its own depth, so successive
+ * captures share every node beneath the frames pushed in between, and a capture builds nodes only for those frames.
+ * <p>
+ * The receivers are held weakly, so a task that outlives its submitter does not keep the submitter's receivers alive;
+ * a receiver which has been collected is simply skipped.
+ * 
+ * @author Byron Hawkins
+ */
+final class ReceiverChain extends WeakReference<Object>
+{
+	static final ReceiverChain EMPTY = new ReceiverChain();
+
+	final ReceiverChain tail;
+
+	private ReceiverChain()
+	{
+		super(null);
+		tail = null;
+	}
+
+	ReceiverChain(Object receiver, ReceiverChain tail)
+	{
+		super(receiver);
+		this.tail = tail;
+	}
+
+	boolean isEmpty()
+	{
+		return tail == null;
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2011 HawkinsSoftware
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Byron Hawkins of HawkinsSoftware
+ */
+package org.hawkinssoftware.rns.core.moa;
+
+import org.hawkinssoftware.rns.core.role.TypeRole;
+
+/**
+ * Mutable frame slot of a <code>RecyclingMessageStack</code>, which is overwritten by every push to its depth.
+ * 
+ * @author Byron Hawkins
+ */
+class RecycledMessageFrame implements MessageStackFrame
+{
+	private int invocationId;
+	private int methodId;
+
+	private TypeRole senderRole;
+	private TypeRole receiverRole;
+
+	/**
+	 * Recycle this frame for a new message.
+	 */
+	void set(int invocationId, int methodId, TypeRole senderRole, TypeRole receiverRole)
+	{
+		this.invocationId = invocationId;
+		this.methodId = methodId;
+
+		this.senderRole = senderRole;
+		this.receiverRole = receiverRole;
+	}
+
+	@Override
+	public int getInvocationId()
+	{
+		return invocationId;
+	}
+
+	@Override
+	public int getMethodId()
+	{
+		return methodId;
+	}
+
+	@Override
+	public String getInvocationDescription()
+	{
+		return MethodDescriptorRegistry.getDescription(invocationId);
+	}
+
+	@Override
+	public String getMethodDescription()
+	{
+		return MethodDescriptorRegistry.getDescription(methodId);
+	}
+
+	@Override
+	public TypeRole getReceiverRole()
+	{
+		return receiverRole;
+	}
+
+	void setReceiverRole(TypeRole receiverRole)
+	{
+		this.receiverRole = receiverRole;
+	}
+
+	@Override
+	public TypeRole getSenderRole()
+	{
+		return senderRole;
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2011 HawkinsSoftware
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Byron Hawkins of HawkinsSoftware
+ */
+package org.hawkinssoftware.rns.core.moa;
+
+import org.hawkinssoftware.rns.core.role.TypeRole;
+
+/**
+ * Default <code>MessageStack</code>, which recycles its frame slots so that a push/pop pair allocates nothing once the
+ * stack has reached its working depth. A snapshot takes time and space proportional to the depth of the stack.
+ * 
+ * @author Byron Hawkins
+ */
+class RecyclingMessageStack implements MessageStack
+{
+	private final MethodInvocationStack<RecycledMessageFrame> frames;
+
+	RecyclingMessageStack(int initialCapacity)
+	{
+		frames = new MethodInvocationStack<RecycledMessageFrame>(initialCapacity) {
+			@Override
+			RecycledMessageFrame createFrame()
+			{
+				return new RecycledMessageFrame();
+			}
+		};
+	}
+
+	@Override
+	public void push(int invocationId, int methodId, TypeRole senderRole, TypeRole receiverRole)
+	{
+		frames.push().set(invocationId, methodId, senderRole, receiverRole);
+	}
+
+	@Override
+	public void pop()
+	{
+		frames.pop();
+	}
+
+	@Override
+	public MessageStackFrame peek()
+	{
+		return frames.peek();
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return frames.isEmpty();
+	}
+
+	@Override
+	public int size()
+	{
+		return frames.size();
+	}
+
+	@Override
+	public void setCurrentReceiverRole(TypeRole receiverRole)
+	{
+		if (!frames.isEmpty())
+		{
+			frames.peek().setReceiverRole(receiverRole);
+		}
+	}
+
+	@Override
+	public Iterable<? extends MessageStackFrame> iterateHistory()
+	{
+		return frames.iterateHistory();
+	}
+
+	@Override
+	public void inherit(MessageStackSnapshot inherited)
+	{
+		for (MessageStackSnapshot frame : inherited.toArrayFromBottom())
+		{
+			push(frame.getInvocationId(), frame.getMethodId(), frame.getSenderRole(), frame.getReceiverRole());
+		}
+	}
+
+	@Override
+	public void restore(int depth)
+	{
+		while (frames.size() > depth)
+		{
+			frames.pop();
+		}
+	}
+
+	@Override
+	public MessageStackSnapshot snapshot()
+	{
+		MessageStackSnapshot snapshot = MessageStackSnapshot.EMPTY;
+		for (int i = 0; i < frames.size(); i++)
+		{
+			RecycledMessageFrame frame = frames.get(i);
+			snapshot = new MessageStackSnapshot(frame.getInvocationId(), frame.getMethodId(), frame.getSenderRole(), frame.getReceiverRole(), snapshot);
+		}
+		return snapshot;
+	}
+}
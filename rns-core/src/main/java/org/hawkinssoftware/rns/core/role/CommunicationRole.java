@@ -10,8 +10,12 @@
  */
 package org.hawkinssoftware.rns.core.role;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -23,13 +27,98 @@ import org.hawkinssoftware.rns.core.util.RNSUtils;
  * Identifies the DomainRole membership of any type. A DomainRole serves as its own CommunicationRole in that it is a
  * subclass of CommunicationRole. For any other type, an instance of <code>TypeRole</code> carries its DomainRole
  * membership.
+ * <p>
+ * Membership queries are answered from a <code>Closure</code> of the role, which holds the transitive membership as a
+ * bitset of <code>DomainRole</code> indices. Any change to the domain graph (a new <code>DomainRole</code>, or any
+ * <code>join()</code> or <code>cede()</code>) advances a global generation, and each role lazily recomputes its closure
+ * when it observes a new generation. The <code>RoleRegistry</code> assigns the declared membership of a new
+ * <code>TypeRole</code> before publishing it, which is not a change to the graph.
+ * <p>
+ * Likewise the properties of a role, including those inherited through its membership, are frozen into a
+ * <code>PropertyTable</code> which is rebuilt only when the generation advances (including by <code>setProperty()</code>
+ * on any role), so property queries do not walk the membership.
  * 
  * @author Byron Hawkins
  */
 public abstract class CommunicationRole
 {
+	/**
+	 * Precomputed transitive membership of a role, valid for one generation of the domain graph.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	private static class Closure
+	{
+		final int generation;
+		// every DomainRole reachable through membership, excluding the role itself
+		final long[] members;
+		// every DomainRole which contains (by class) one of the members
+		final long[] containers;
+		// true when no member overrides allowsMessage() or allowsIdentityChange(), so both trivially allow
+		final boolean unrestrictedMessages;
+		final boolean unrestrictedIdentityChange;
+
+		Closure(int generation, long[] members, long[] containers, boolean unrestrictedMessages, boolean unrestrictedIdentityChange)
+		{
+			this.generation = generation;
+			this.members = members;
+			this.containers = containers;
+			this.unrestrictedMessages = unrestrictedMessages;
+			this.unrestrictedIdentityChange = unrestrictedIdentityChange;
+		}
+	}
+
+	/**
+	 * Resolution of every property domain visible from a role, valid for one generation of the domain graph. Each
+	 * domain resolves to the first <code>EnumeratedProperties</code> which contains it, searching the role's own
+	 * properties first and then the membership depth-first.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	private static class PropertyTable
+	{
+		final int generation;
+		final Map<Class<?>, EnumeratedProperties> sources;
+		// exclusive domains and their values, where a member's value replaces the role's own; unmodifiable
+		final Map<Class<?>, Object> flatProperties;
+
+		PropertyTable(int generation, Map<Class<?>, EnumeratedProperties> sources, Map<Class<?>, Object> flatProperties)
+		{
+			this.generation = generation;
+			this.sources = sources;
+			this.flatProperties = Collections.unmodifiableMap(flatProperties);
+		}
+	}
+
+	private static volatile int generation = 0;
+
+	/**
+	 * @return the current generation of the domain graph, which advances on any change to domain membership
+	 */
+	static int getGeneration()
+	{
+		return generation;
+	}
+
+	static void advanceGeneration()
+	{
+		synchronized (CommunicationRole.class)
+		{
+			generation++;
+		}
+	}
+
+	static boolean contains(long[] bits, int index)
+	{
+		int word = index >>> 6;
+		return (word < bits.length) && ((bits[word] & (1L << index)) != 0L);
+	}
+
 	private final EnumeratedProperties properties = new EnumeratedProperties();
 
+	private volatile Closure closure;
+	private volatile PropertyTable propertyTable;
+
 	/**
 	 * <pre>
 	 * TODO: role property behavior needs to be specified in more detail:
@@ -46,87 +135,155 @@ public abstract class CommunicationRole
 		return membership;
 	}
 
+	/**
+	 * @return true if any domain in the transitive membership of this role is contained by <code>role</code>
+	 */
 	public boolean hasRole(DomainRole role)
 	{
-		for (DomainRole category : membership)
-		{
-			if (role.getClass().isAssignableFrom(category.getClass()))
-			{
-				return true;
-			}
+		return contains(getClosure().containers, role.index);
+	}
 
-			if (category.hasRole(role))
-			{
-				return true;
-			}
-		}
+	/**
+	 * @return true if <code>role</code> is in the transitive membership of this role
+	 */
+	boolean isMember(DomainRole role)
+	{
+		return contains(getClosure().members, role.index);
+	}
 
-		return false;
+	private Closure getClosure()
+	{
+		int currentGeneration = generation;
+		Closure current = closure;
+		if ((current == null) || (current.generation != currentGeneration))
+		{
+			current = computeClosure(currentGeneration);
+			closure = current;
+		}
+		return current;
 	}
 
-	public <E extends Enum<E>> E getProperty(Class<E> key)
+	private Closure computeClosure(int currentGeneration)
 	{
-		E value = (E) properties.getProperty(key);
-		for (DomainRole category : membership)
+		DomainRole[] domains = DomainRole.getAllDomains();
+		int wordCount = (domains.length + 63) >>> 6;
+		long[] members = new long[wordCount];
+		long[] containers = new long[wordCount];
+		boolean unrestrictedMessages = true;
+		boolean unrestrictedIdentityChange = true;
+
+		List<CommunicationRole> unvisited = new ArrayList<CommunicationRole>();
+		unvisited.add(this);
+		while (!unvisited.isEmpty())
 		{
-			E categoryValue = category.getProperty(key);
-			if (categoryValue != null)
+			CommunicationRole role = unvisited.remove(unvisited.size() - 1);
+			for (DomainRole category : role.membership)
 			{
-				if (value == null)
+				if ((category.index >= domains.length) || contains(members, category.index))
 				{
-					value = categoryValue;
+					continue;
 				}
-				else
+				members[category.index >>> 6] |= (1L << category.index);
+				unrestrictedMessages &= !category.overridesAllowsMessage;
+				unrestrictedIdentityChange &= !category.overridesAllowsIdentityChange;
+				unvisited.add(category);
+
+				for (DomainRole container : domains)
 				{
-					System.err.println("Warning: dulicate role property " + key + " found in " + RNSUtils.getPlainName(category.getClass()) + " of "
-							+ RNSUtils.getPlainName(getClass()));
+					if (container.getClass().isAssignableFrom(category.getClass()))
+					{
+						containers[container.index >>> 6] |= (1L << container.index);
+					}
 				}
 			}
 		}
-		return value;
+
+		return new Closure(currentGeneration, members, containers, unrestrictedMessages, unrestrictedIdentityChange);
+	}
+
+	public <E extends Enum<E>> E getProperty(Class<E> key)
+	{
+		// the first source found, which is the role's own properties when they include the domain
+		EnumeratedProperties source = getPropertyTable().sources.get(key);
+		return (source == null) ? null : source.getProperty(key);
 	}
 
 	public <E extends Enum<E>> PropertyStatus getPropertyStatus(E queryValue)
 	{
-		@SuppressWarnings("unchecked")
-		PropertyStatus status = properties.getPropertyStatus(queryValue);
-		if (status != PropertyStatus.DOMAIN_ABSENT)
+		EnumeratedProperties source = getPropertyTable().sources.get(queryValue.getDeclaringClass());
+		if (source == null)
 		{
-			return status;
+			return PropertyStatus.DOMAIN_ABSENT;
 		}
-		for (DomainRole category : membership)
-		{
-			status = category.getPropertyStatus(queryValue);
-			if (status != PropertyStatus.DOMAIN_ABSENT)
-			{
-				return status;
-			}
-		}
-		return PropertyStatus.DOMAIN_ABSENT;
+		@SuppressWarnings("unchecked")
+		PropertyStatus status = source.getPropertyStatus(queryValue);
+		return status;
 	}
 
+	/**
+	 * @return the exclusive properties of this role and its membership, in an unmodifiable map which is shared until
+	 *         the domain graph changes
+	 */
 	public Map<Class<?>, Object> getProperties()
 	{
-		Map<Class<?>, Object> flatProperties = new HashMap<Class<?>, Object>();
-		flattenProperties(flatProperties);
-		return flatProperties;
+		return getPropertyTable().flatProperties;
 	}
 
-	void flattenProperties(Map<Class<?>, Object> flatProperties)
+	private PropertyTable getPropertyTable()
 	{
+		int currentGeneration = generation;
+		PropertyTable current = propertyTable;
+		if ((current == null) || (current.generation != currentGeneration))
+		{
+			Map<Class<?>, EnumeratedProperties> sources = new IdentityHashMap<Class<?>, EnumeratedProperties>();
+			Map<Class<?>, Object> flatProperties = new HashMap<Class<?>, Object>();
+			collectProperties(this, sources, flatProperties);
+			current = new PropertyTable(currentGeneration, sources, flatProperties);
+			propertyTable = current;
+		}
+		return current;
+	}
+
+	private void collectProperties(CommunicationRole owner, Map<Class<?>, EnumeratedProperties> sources, Map<Class<?>, Object> flatProperties)
+	{
+		for (Class<? extends Enum<?>> domain : properties.getDomains())
+		{
+			EnumeratedProperties existing = sources.get(domain);
+			if (existing == null)
+			{
+				sources.put(domain, properties);
+			}
+			else if (existing != properties)
+			{
+				System.err.println("Warning: dulicate role property " + domain + " found in " + RNSUtils.getPlainName(getClass()) + " of "
+						+ RNSUtils.getPlainName(owner.getClass()));
+			}
+		}
+		// the role's own values come first in lookups, but in the flattened map a member's value replaces them
 		flatProperties.putAll(properties.getExclusivePropertyDomains());
-		for (DomainRole category : membership)
+		for (CommunicationRole category : membership)
 		{
-			category.flattenProperties(flatProperties);
+			category.collectProperties(owner, sources, flatProperties);
 		}
 	}
 
 	public <E extends Enum<E>> void setProperty(Class<E> key, E value)
 	{
 		properties.setProperty(key, value);
+		advanceGeneration();
 	}
 
 	public void join(DomainRole role)
+	{
+		membership.add(role);
+		advanceGeneration();
+	}
+
+	/**
+	 * Add <code>role</code> to the membership of a role which has not yet been published to any other thread, so no
+	 * cache can depend on its membership and the generation need not advance.
+	 */
+	void initializeMembership(DomainRole role)
 	{
 		membership.add(role);
 	}
@@ -134,12 +291,17 @@ public abstract class CommunicationRole
 	public void cede(DomainRole role)
 	{
 		membership.remove(role);
+		advanceGeneration();
 	}
 
 	// TODO: do constraints provide convenient and basic enough orthogonality rejection for these conditions? Maybe I
 	// should drop this concept of identity change
 	public boolean allowsIdentityChange(CommunicationRole other)
 	{
+		if (getClosure().unrestrictedIdentityChange)
+		{
+			return true;
+		}
 		for (DomainRole category : membership)
 		{
 			if (!category.allowsIdentityChange(other))
@@ -152,6 +314,10 @@ public abstract class CommunicationRole
 
 	public boolean allowsMessage(CommunicationRole receiver)
 	{
+		if (getClosure().unrestrictedMessages)
+		{
+			return true;
+		}
 		for (DomainRole category : membership)
 		{
 			if (!category.allowsMessage(receiver))
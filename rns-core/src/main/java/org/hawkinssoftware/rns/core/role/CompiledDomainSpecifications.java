@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2011 HawkinsSoftware
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Byron Hawkins of HawkinsSoftware
+ */
+package org.hawkinssoftware.rns.core.role;
+
+import java.util.List;
+
+/**
+ * Domain specifications compiled ahead of time from a <code>*.domains.xml</code> document by the
+ * <code>DomainSpecificationsCompiler</code> build tool of rns-ast-analyzer. The generated implementation refers to each
+ * domain's singleton instance directly, so registering it with
+ * <code>DomainSpecificationRegistry.register(CompiledDomainSpecifications)</code> involves no XML parsing and no
+ * reflection.
+ * 
+ * @author Byron Hawkins
+ */
+public interface CompiledDomainSpecifications
+{
+	List<DomainRole.OrthogonalSet> getOrthogonalSets();
+}
@@ -18,9 +18,11 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.hawkinssoftware.rns.core.publication.InvocationConstraint;
 
 /**
  * The DomainRole is the base class for the domain hierarchy, which the developer constructs and uses to delineate
@@ -62,23 +64,59 @@ public class DomainRole extends CommunicationRole
 	{
 	}
 
-	private String name;
+	private static final DomainRole[] NO_DOMAINS = new DomainRole[0];
 
-	public boolean includes(CommunicationRole other)
+	// indexed by DomainRole.index; copied on every addition
+	private static volatile DomainRole[] allDomains = NO_DOMAINS;
+
+	private static synchronized int register(DomainRole domain)
 	{
-		if (other == this)
+		DomainRole[] domains = allDomains;
+		DomainRole[] expanded = new DomainRole[domains.length + 1];
+		System.arraycopy(domains, 0, expanded, 0, domains.length);
+		expanded[domains.length] = domain;
+		allDomains = expanded;
+		return domains.length;
+	}
+
+	static DomainRole[] getAllDomains()
+	{
+		return allDomains;
+	}
+
+	private static boolean overrides(Class<?> type, String methodName)
+	{
+		try
 		{
-			return true;
+			return type.getMethod(methodName, CommunicationRole.class).getDeclaringClass() != CommunicationRole.class;
 		}
-
-		for (CommunicationRole category : other.membership)
+		catch (NoSuchMethodException e)
 		{
-			if (includes(category))
-			{
-				return true;
-			}
+			throw new IllegalStateException("Failed to find method " + methodName + " in " + type.getName(), e);
 		}
-		return false;
+	}
+
+	/**
+	 * Dense identifier of this domain in the membership bitsets.
+	 */
+	final int index;
+
+	final boolean overridesAllowsMessage;
+	final boolean overridesAllowsIdentityChange;
+
+	private String name;
+
+	public DomainRole()
+	{
+		overridesAllowsMessage = overrides(getClass(), "allowsMessage");
+		overridesAllowsIdentityChange = overrides(getClass(), "allowsIdentityChange");
+		index = register(this);
+		advanceGeneration();
+	}
+
+	public boolean includes(CommunicationRole other)
+	{
+		return (other == this) || other.isMember(this);
 	}
 
 	/**
@@ -95,38 +133,103 @@ public class DomainRole extends CommunicationRole
 
 		public final List<DomainRole> domains = Collections.unmodifiableList(domainsAssembly);
 		public final List<String> packagePatterns = Collections.unmodifiableList(packagePatternsAssembly);
+
+		public OrthogonalSet()
+		{
+		}
+
+		/**
+		 * Used by <code>CompiledDomainSpecifications</code>, which refer to the domain instances directly.
+		 */
+		public OrthogonalSet(DomainRole[] domains, String[] packagePatterns)
+		{
+			Collections.addAll(domainsAssembly, domains);
+			Collections.addAll(packagePatternsAssembly, packagePatterns);
+		}
 	}
 
 	/**
 	 * Finds and returns the static singleton instance of a DomainRole, given the
-	 * <code>Class<? extends DomainRole></code>.
+	 * <code>Class<? extends DomainRole></code>. Each instance is resolved once per class and held in a
+	 * <code>ClassValue</code>, so lookups are lock-free and safe from any thread. Resolution takes the instance
+	 * announced by the class's own static initializer, if the RNS agent was configured to pre-register instances, and
+	 * otherwise reads the <code>@DomainRole.Instance</code> field reflectively. Since the result is cached, the field is
+	 * read only once per class, so a plain <code>Field.get()</code> is used rather than a <code>MethodHandle</code>, which
+	 * would only add its own setup cost.
 	 * 
 	 * @author Byron Hawkins
 	 */
 	public static class Resolver
 	{
-		private static final Map<Class<? extends DomainRole>, DomainRole> INSTANCE_CACHE = new HashMap<Class<? extends DomainRole>, DomainRole>();
+		// instances announced during static initialization, waiting to be claimed by the ClassValue
+		private static final ConcurrentMap<Class<?>, DomainRole> REGISTERED_INSTANCES = new ConcurrentHashMap<Class<?>, DomainRole>();
 
-		public static DomainRole getInstance(Class<? extends DomainRole> type) throws IllegalArgumentException, IllegalAccessException
+		private static final ClassValue<DomainRole> INSTANCES = new ClassValue<DomainRole>() {
+			@Override
+			protected DomainRole computeValue(Class<?> type)
+			{
+				DomainRole instance = REGISTERED_INSTANCES.get(type);
+				if (instance == null)
+				{
+					instance = resolve(type);
+				}
+				REGISTERED_INSTANCES.remove(type);
+				return instance;
+			}
+		};
+
+		public static DomainRole getInstance(Class<? extends DomainRole> type)
 		{
-			DomainRole instance = INSTANCE_CACHE.get(type);
-			if (instance == null)
+			return INSTANCES.get(type);
+		}
+
+		/**
+		 * Announce the singleton instance of <code>type</code>. The RNS agent inserts a call at the end of the static
+		 * initializer of each DomainRole when the "preregister-domain-roles" property is set.
+		 */
+		@InvocationConstraint(packages = { InvocationConstraint.MY_PACKAGE, "org.hawkinssoftware.rns.agent.*" })
+		public static void register(Class<?> type, DomainRole instance)
+		{
+			REGISTERED_INSTANCES.putIfAbsent(type, instance);
+		}
+
+		private static DomainRole resolve(Class<?> type)
+		{
+			// prefer the instance declared by the type itself; as before, an inherited public instance is accepted
+			Field instanceField = null;
+			for (Field field : type.getFields())
 			{
-				for (Field field : type.getFields())
+				if (Modifier.isStatic(field.getModifiers()) && (field.getAnnotation(DomainRole.Instance.class) != null))
 				{
-					if (Modifier.isStatic(field.getModifiers()) && (field.getAnnotation(DomainRole.Instance.class) != null))
+					instanceField = field;
+					if (field.getDeclaringClass() == type)
 					{
-						field.setAccessible(true);
-						instance = (DomainRole) field.get(null);
-						INSTANCE_CACHE.put(type, instance);
+						break;
 					}
 				}
-				if (instance == null)
-				{
-					throw new IllegalStateException("Domain role " + type.getCanonicalName() + " has no instance!");
-				}
+			}
+			if (instanceField == null)
+			{
+				throw new IllegalStateException("Domain role " + type.getCanonicalName() + " has no instance!");
+			}
+
+			DomainRole instance;
+			try
+			{
+				// the domain class itself need not be public
+				instanceField.setAccessible(true);
+				instance = (DomainRole) instanceField.get(null);
+			}
+			catch (IllegalAccessException e)
+			{
+				throw new IllegalStateException("Failed to read the instance of domain role " + type.getCanonicalName(), e);
+			}
+			if (instance == null)
+			{
+				// don't let the ClassValue cache a field that is still being initialized
+				throw new IllegalStateException("Domain role " + type.getCanonicalName() + " is referenced before its instance is initialized.");
 			}
 			return instance;
 		}
 	}
-}
\ No newline at end of file
+}
@@ -10,27 +10,94 @@
  */
 package org.hawkinssoftware.rns.core.role;
 
-import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 
 import org.hawkinssoftware.rns.core.log.Log;
 import org.hawkinssoftware.rns.core.util.RNSLogging.Tag;
-import org.xml.sax.SAXException;
 
 /**
- * DOC comment task awaits.
+ * Holds the orthogonal sets loaded from domain specification documents, and evaluates pairs of roles against them.
+ * <p>
+ * Collaboration evaluations depend only on the orthogonal positions of the two roles, so the positions are memoized on
+ * each <code>TypeRole</code> itself and a pair is evaluated by merging the two position arrays. The memo lives and dies
+ * with its role, so it never keeps a role (or its class) reachable. It is recomputed when specifications are registered
+ * or the domain graph changes, and every pair without conflicts shares <code>CollaborationEvaluation.NO_CONFLICTS</code>.
+ * <p>
+ * Specifications may be registered from the XML document, which requires a reflective lookup of each domain instance,
+ * or from a <code>CompiledDomainSpecifications</code> generated at build time by
+ * <code>DomainSpecificationsCompiler</code> (in rns-ast-analyzer), which requires neither parsing nor reflection.
  * 
  * @author Byron Hawkins
  */
 public class DomainSpecificationRegistry
 {
+	/**
+	 * Identifies one state of the registered orthogonal sets and the domain graph.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	private static class Revision
+	{
+		final int generation;
+		final int revision;
+
+		Revision(int generation, int revision)
+		{
+			this.generation = generation;
+			this.revision = revision;
+		}
+	}
+
+	/**
+	 * The orthogonal positions of one role, with the membership that placed it in each set, valid for one revision.
+	 * Held by the <code>TypeRole</code> itself.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	static class RoleOrthogonality
+	{
+		final int revision;
+		// in order of setIndex
+		final OrthogonalPosition[] positions;
+		// parallel to positions
+		final OrthogonalSetMember[] members;
+
+		RoleOrthogonality(int revision, OrthogonalPosition[] positions, OrthogonalSetMember[] members)
+		{
+			this.revision = revision;
+			this.positions = positions;
+			this.members = members;
+		}
+	}
+
+	/**
+	 * Membership of a role in one orthogonal set: the index of the set in <code>orthogonalSets</code>, and the index of
+	 * the role's domain within the set's <code>domains</code>. Two roles conflict when they have positions in the same
+	 * set with different domain indices.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	public static class OrthogonalPosition
+	{
+		public final int setIndex;
+		public final int domainIndex;
+
+		OrthogonalPosition(int setIndex, int domainIndex)
+		{
+			this.setIndex = setIndex;
+			this.domainIndex = domainIndex;
+		}
+	}
+
+	private static final OrthogonalPosition[] NO_POSITIONS = new OrthogonalPosition[0];
+	private static final OrthogonalSetMember[] NO_MEMBERS = new OrthogonalSetMember[0];
+
 	public static DomainSpecificationRegistry getInstance()
 	{
 		return INSTANCE;
@@ -38,18 +105,21 @@ public class DomainSpecificationRegistry
 
 	private static final DomainSpecificationRegistry INSTANCE = new DomainSpecificationRegistry();
 
-	private final List<DomainRole.OrthogonalSet> orthogonalSetsAssembly = new ArrayList<DomainRole.OrthogonalSet>();
+	private final List<DomainRole.OrthogonalSet> orthogonalSetsAssembly = new CopyOnWriteArrayList<DomainRole.OrthogonalSet>();
 
 	public final List<DomainRole.OrthogonalSet> orthogonalSets;
 
+	private volatile Revision revision = new Revision(CommunicationRole.getGeneration(), 0);
+
 	private DomainSpecificationRegistry()
 	{
 		orthogonalSets = Collections.unmodifiableList(orthogonalSetsAssembly);
 	}
 
-	public void register(InputStream specificationSource) throws SAXException, IOException, ParserConfigurationException
+	public void register(InputStream specificationSource) throws XMLStreamException
 	{
 		DomainSpecifications specifications = DomainSpecificationsLoader.load(specificationSource);
+		List<DomainRole.OrthogonalSet> orthogonalRoleSets = new ArrayList<DomainRole.OrthogonalSet>();
 
 		for (DomainSpecifications.OrthogonalSet orthogonalTypenameSet : specifications.orthogonalSets)
 		{
@@ -71,53 +141,154 @@ public class DomainSpecificationRegistry
 				}
 			}
 
-			orthogonalSetsAssembly.add(orthogonalRoleSet);
+			orthogonalRoleSets.add(orthogonalRoleSet);
 		}
+
+		register(orthogonalRoleSets);
 	}
 
-	// WIP: evaluate package membership
-	public CollaborationEvaluation evaluateCollaboration(TypeRole first, TypeRole second)
+	public void register(CompiledDomainSpecifications specifications)
 	{
-		CollaborationEvaluation evaluation = new CollaborationEvaluation();
+		register(specifications.getOrthogonalSets());
+	}
 
-		Map<DomainRole.OrthogonalSet, OrthogonalSetMember> firstOrthogonalMembers = collectOrthogonalMembership(first);
-		Map<DomainRole.OrthogonalSet, OrthogonalSetMember> secondOrthogonalMembers = collectOrthogonalMembership(second);
+	private void register(List<DomainRole.OrthogonalSet> orthogonalRoleSets)
+	{
+		synchronized (this)
+		{
+			orthogonalSetsAssembly.addAll(orthogonalRoleSets);
+			revision = new Revision(CommunicationRole.getGeneration(), revision.revision + 1);
+		}
+	}
 
-		for (Map.Entry<DomainRole.OrthogonalSet, OrthogonalSetMember> firstEntry : firstOrthogonalMembers.entrySet())
+	/**
+	 * The revision is only advanced under the registry's monitor, so that each advance publishes a distinct number;
+	 * the common case of an unchanged generation reads it without locking.
+	 */
+	private Revision getCurrentRevision()
+	{
+		Revision current = revision;
+		int generation = CommunicationRole.getGeneration();
+		if (current.generation != generation)
 		{
-			OrthogonalSetMember secondMember = secondOrthogonalMembers.get(firstEntry.getKey());
-			if (secondMember == null)
+			synchronized (this)
 			{
-				continue;
+				current = revision;
+				if (current.generation != generation)
+				{
+					current = new Revision(generation, current.revision + 1);
+					revision = current;
+				}
 			}
+		}
+		return current;
+	}
+
+	/**
+	 * @return a number which changes whenever previously obtained <code>OrthogonalPosition</code>s may have become
+	 *         stale, because specifications were registered or the domain graph changed
+	 */
+	public int getRevision()
+	{
+		return getCurrentRevision().revision;
+	}
+
+	/**
+	 * @return the positions of <code>role</code> in the orthogonal sets, or an empty array if it belongs to none
+	 */
+	public OrthogonalPosition[] getOrthogonalPositions(TypeRole role)
+	{
+		return getOrthogonality(role).positions;
+	}
 
-			if (firstEntry.getValue().orthogonalDomain != secondMember.orthogonalDomain)
+	private RoleOrthogonality getOrthogonality(TypeRole role)
+	{
+		int currentRevision = getCurrentRevision().revision;
+		RoleOrthogonality orthogonality = role.orthogonality;
+		if ((orthogonality == null) || (orthogonality.revision != currentRevision))
+		{
+			List<OrthogonalPosition> positions = new ArrayList<OrthogonalPosition>();
+			List<OrthogonalSetMember> members = new ArrayList<OrthogonalSetMember>();
+			for (int setIndex = 0; setIndex < orthogonalSets.size(); setIndex++)
 			{
-				evaluation.addConflict(firstEntry.getValue().typeDomain, secondMember.typeDomain);
+				OrthogonalSetMember member = findOrthogonalMember(role, orthogonalSets.get(setIndex));
+				if (member != null)
+				{
+					positions.add(new OrthogonalPosition(setIndex, orthogonalSets.get(setIndex).domains.indexOf(member.orthogonalDomain)));
+					members.add(member);
+				}
 			}
+			if (positions.isEmpty())
+			{
+				orthogonality = new RoleOrthogonality(currentRevision, NO_POSITIONS, NO_MEMBERS);
+			}
+			else
+			{
+				orthogonality = new RoleOrthogonality(currentRevision, positions.toArray(new OrthogonalPosition[positions.size()]),
+						members.toArray(new OrthogonalSetMember[members.size()]));
+			}
+			role.orthogonality = orthogonality;
 		}
-
-		return evaluation;
+		return orthogonality;
 	}
 
-	private Map<DomainRole.OrthogonalSet, OrthogonalSetMember> collectOrthogonalMembership(TypeRole typeRole)
+	// WIP: evaluate package membership
+	/**
+	 * Merge the orthogonal positions of the two roles: they conflict in each set where both have a position, but in
+	 * different domains. A pair without conflicts allocates nothing.
+	 */
+	public CollaborationEvaluation evaluateCollaboration(TypeRole first, TypeRole second)
 	{
-		Map<DomainRole.OrthogonalSet, OrthogonalSetMember> orthogonalMembers = new HashMap<DomainRole.OrthogonalSet, OrthogonalSetMember>();
-		orthogonals: for (DomainRole.OrthogonalSet orthogonalSet : orthogonalSets)
+		RoleOrthogonality firstOrthogonality = getOrthogonality(first);
+		RoleOrthogonality secondOrthogonality = getOrthogonality(second);
+		OrthogonalPosition[] firstPositions = firstOrthogonality.positions;
+		OrthogonalPosition[] secondPositions = secondOrthogonality.positions;
+
+		CollaborationEvaluation evaluation = CollaborationEvaluation.NO_CONFLICTS;
+		int i = 0;
+		int j = 0;
+		while ((i < firstPositions.length) && (j < secondPositions.length))
 		{
-			for (DomainRole firstRole : typeRole.membership)
+			int firstSet = firstPositions[i].setIndex;
+			int secondSet = secondPositions[j].setIndex;
+			if (firstSet < secondSet)
 			{
-				for (DomainRole orthogonalRole : orthogonalSet.domains)
+				i++;
+			}
+			else if (secondSet < firstSet)
+			{
+				j++;
+			}
+			else
+			{
+				if (firstPositions[i].domainIndex != secondPositions[j].domainIndex)
 				{
-					if (orthogonalRole.getClass().isAssignableFrom(firstRole.getClass()))
+					if (evaluation == CollaborationEvaluation.NO_CONFLICTS)
 					{
-						orthogonalMembers.put(orthogonalSet, new OrthogonalSetMember(typeRole, firstRole, orthogonalRole));
-						continue orthogonals;
+						evaluation = new CollaborationEvaluation();
 					}
+					evaluation.addConflict(firstOrthogonality.members[i].typeDomain, secondOrthogonality.members[j].typeDomain);
+				}
+				i++;
+				j++;
+			}
+		}
+		return evaluation;
+	}
+
+	private OrthogonalSetMember findOrthogonalMember(TypeRole typeRole, DomainRole.OrthogonalSet orthogonalSet)
+	{
+		for (DomainRole firstRole : typeRole.membership)
+		{
+			for (DomainRole orthogonalRole : orthogonalSet.domains)
+			{
+				if (orthogonalRole.getClass().isAssignableFrom(firstRole.getClass()))
+				{
+					return new OrthogonalSetMember(typeRole, firstRole, orthogonalRole);
 				}
 			}
 		}
-		return orthogonalMembers;
+		return null;
 	}
 
 	/**
@@ -127,7 +298,11 @@ public class DomainSpecificationRegistry
 	 */
 	public static class CollaborationEvaluation
 	{
-		
+		/**
+		 * Shared result for every pair of roles having no conflicts.
+		 */
+		public static final CollaborationEvaluation NO_CONFLICTS = new CollaborationEvaluation();
+
 		/**
 		 * DOC comment task awaits.
 		 * 
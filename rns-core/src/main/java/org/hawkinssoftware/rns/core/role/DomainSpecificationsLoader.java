@@ -10,34 +10,53 @@
  */
 package org.hawkinssoftware.rns.core.role;
 
-import java.io.IOException;
 import java.io.InputStream;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.hawkinssoftware.rns.core.log.Log;
 import org.hawkinssoftware.rns.core.role.DomainSpecifications.OrthogonalSet;
 import org.hawkinssoftware.rns.core.util.RNSLogging.Tag;
 import org.hawkinssoftware.rns.core.util.RNSUtils;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.xml.sax.SAXException;
 
 /**
- * DOC comment task awaits.
+ * Reads a domain specification document (<code>*.domains.xml</code>) into a <code>DomainSpecifications</code>. The
+ * document is streamed with StAX, so no DOM is built; each element is consumed as it is encountered.
  * 
  * @author Byron Hawkins
  */
 public class DomainSpecificationsLoader
 {
-	public static DomainSpecifications load(InputStream in) throws SAXException, IOException, ParserConfigurationException
+	private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+
+	static
+	{
+		// the specifications are plain configuration; there is no need to resolve DTDs or external entities
+		INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+	}
+
+	public static DomainSpecifications load(InputStream in) throws XMLStreamException
 	{
-		Assembly assembly = new Assembly();
-		assembly.assemble(in);
-		return assembly.specifications;
+		XMLStreamReader reader;
+		synchronized (INPUT_FACTORY)
+		{
+			reader = INPUT_FACTORY.createXMLStreamReader(in);
+		}
+
+		try
+		{
+			Assembly assembly = new Assembly(reader);
+			assembly.assemble();
+			return assembly.specifications;
+		}
+		finally
+		{
+			reader.close();
+		}
 	}
 
 	/**
@@ -48,82 +67,108 @@ public class DomainSpecificationsLoader
 	private static class Assembly
 	{
 		private final DomainSpecifications specifications = new DomainSpecifications();
+		private final XMLStreamReader reader;
 
-		void assemble(InputStream in) throws SAXException, IOException, ParserConfigurationException
+		Assembly(XMLStreamReader reader)
 		{
-			DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-			Document document = builder.parse(in);
+			this.reader = reader;
+		}
 
-			Node rootNode = document.getFirstChild();
-			while (rootNode != null)
+		void assemble() throws XMLStreamException
+		{
+			// depth 1 is the document element; its child elements are the specification entries
+			int depth = 0;
+			while (reader.hasNext())
 			{
-				Node node = rootNode.getFirstChild();
-				while (node != null)
+				switch (reader.next())
 				{
-					if (node instanceof Element)
-					{
-						Element entry = (Element) node;
-						if (entry.getNodeName().equals("orthogonal-set"))
-						{
-							addOrthogonalSet(entry);
-						}
-						else if (entry.getNodeName().equals("domain-containment"))
-						{
-							addDomainContainment(entry);
-						}
-						else
+					case XMLStreamConstants.START_ELEMENT:
+						depth++;
+						if (depth == 2)
 						{
-							Log.out(Tag.WARNING, "Unknown orthogonal-scope element %s", entry.getNodeName());
+							String name = reader.getLocalName();
+							if (name.equals("orthogonal-set"))
+							{
+								addOrthogonalSet();
+								depth--;
+							}
+							else if (name.equals("domain-containment"))
+							{
+								addDomainContainment();
+							}
+							else
+							{
+								Log.out(Tag.WARNING, "Unknown orthogonal-scope element %s", name);
+							}
 						}
-					}
-					node = node.getNextSibling();
+						break;
+					case XMLStreamConstants.END_ELEMENT:
+						depth--;
+						break;
 				}
-				rootNode = rootNode.getNextSibling();
 			}
 		}
 
-		private void addOrthogonalSet(Element orthogonalSetElement)
+		/**
+		 * Consume the current <code>orthogonal-set</code> element through its end tag.
+		 */
+		private void addOrthogonalSet() throws XMLStreamException
 		{
 			OrthogonalSet orthogonalSet = new OrthogonalSet();
-			Node node = orthogonalSetElement.getFirstChild();
-			while (node != null)
+			while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
 			{
-				if (node instanceof Element)
+				String name = reader.getLocalName();
+				if (name.equals("domain"))
+				{
+					orthogonalSet.domainTypenamesAssembly.add(RNSUtils.makeCanonical(reader.getElementText().trim()));
+				}
+				else if (name.equals("package"))
+				{
+					orthogonalSet.packagePatternsAssembly.add(reader.getElementText().trim());
+				}
+				else
 				{
-					Element entry = (Element) node;
-					if (entry.getNodeName().equals("domain"))
-					{
-						orthogonalSet.domainTypenamesAssembly.add(RNSUtils.makeCanonical(entry.getFirstChild().getNodeValue()));
-					}
-					else if (entry.getNodeName().equals("package"))
-					{
-						orthogonalSet.packagePatternsAssembly.add(entry.getFirstChild().getNodeValue());
-					}
-					else
-					{
-						Log.out(Tag.CRITICAL, "Unknown orthogonal-set element %s", entry.getNodeName());
-					}
+					Log.out(Tag.CRITICAL, "Unknown orthogonal-set element %s", name);
+					skipElement();
 				}
-				node = node.getNextSibling();
 			}
 			specifications.orthogonalSetsAssembly.add(orthogonalSet);
 		}
 
-		private void addDomainContainment(Element domainContainment)
+		private void addDomainContainment()
 		{
-			String parent = domainContainment.getAttribute("parent-domain");
-			String child = domainContainment.getAttribute("child-domain");
+			String parent = reader.getAttributeValue(null, "parent-domain");
+			String child = reader.getAttributeValue(null, "child-domain");
 
-			if (parent.length() == 0)
+			if ((parent == null) || (parent.length() == 0))
 			{
 				Log.out(Tag.CRITICAL, "Missing parent domain in <domain-containment> element.");
+				parent = "";
 			}
-			if (child.length() == 0)
+			if ((child == null) || (child.length() == 0))
 			{
 				Log.out(Tag.CRITICAL, "Missing child domain in <domain-containment> element.");
+				child = "";
 			}
 
 			specifications.parentDomainByChildDomain.put(RNSUtils.makeCanonical(child), RNSUtils.makeCanonical(parent));
 		}
+
+		private void skipElement() throws XMLStreamException
+		{
+			int depth = 1;
+			while (depth > 0)
+			{
+				switch (reader.next())
+				{
+					case XMLStreamConstants.START_ELEMENT:
+						depth++;
+						break;
+					case XMLStreamConstants.END_ELEMENT:
+						depth--;
+						break;
+				}
+			}
+		}
 	}
-}
\ No newline at end of file
+}
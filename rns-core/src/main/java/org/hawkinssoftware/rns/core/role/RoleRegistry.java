@@ -14,27 +14,35 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
- * DOC comment task awaits.
+ * Associates each class with its <code>TypeRole</code>, which is resolved from the <code>@DomainRole.Join</code>
+ * annotations of the class and its supertypes on first request. The roles are held in a <code>ClassValue</code>, so a
+ * lookup is a single lock-free probe from any thread, and a role is discarded along with its class when the class is
+ * unloaded.
  * 
  * @author Byron Hawkins
  */
 public class RoleRegistry
 {
-	private static final TypeRole.Map roles = new TypeRole.Map();
+	private static final ClassValue<TypeRole> roles = new ClassValue<TypeRole>() {
+		@Override
+		protected TypeRole computeValue(Class<?> type)
+		{
+			return register(type);
+		}
+	};
 
-	private static void register(Class<?> roleParticipant)
+	private static TypeRole register(Class<?> roleParticipant)
 	{
 		if (roleParticipant == System.class)
 		{
 			// hack, but it doesn't work
-			return;
+			return null;
 		}
 
 		// not sure if this is a hack...
 		if (roleParticipant == Object.class)
 		{
-			roles.add(new TypeRole(roleParticipant));
-			return;
+			return new TypeRole(roleParticipant);
 		}
 
 		try
@@ -52,7 +60,8 @@ public class RoleRegistry
 					for (Class<? extends DomainRole> type : registration.membership())
 					{
 						DomainRole instance = DomainRole.Resolver.getInstance(type);
-						role.join(instance);
+						// the role is not yet published, so its membership is not yet a change to the domain graph
+						role.initializeMembership(instance);
 					}
 
 					// System.out.println("Registering " + role);
@@ -69,7 +78,7 @@ public class RoleRegistry
 				}
 			}
 
-			roles.add(role);
+			return role;
 		}
 		catch (Exception e)
 		{
@@ -79,10 +88,6 @@ public class RoleRegistry
 
 	public static TypeRole getRole(Class<?> roleParticipant)
 	{
-		if (!roles.containsKey(roleParticipant))
-		{
-			register(roleParticipant);
-		}
 		return roles.get(roleParticipant);
 	}
 }
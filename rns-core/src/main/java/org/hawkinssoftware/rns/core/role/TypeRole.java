@@ -35,10 +35,35 @@ public class TypeRole extends CommunicationRole
 		}
 	}
 
+	/**
+	 * The description of a role for one generation of the domain graph and one type, published as a whole so that a
+	 * reader never pairs the text of one generation with the stamp of another.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	private static class Description
+	{
+		final int generation;
+		final Class<?> type;
+		final String text;
+
+		Description(int generation, Class<?> type, String text)
+		{
+			this.generation = generation;
+			this.type = type;
+			this.text = text;
+		}
+	}
+
 	public static final TypeRole NONE = new TypeRole(Object.class);
 
 	private Class<?> type;
 
+	volatile DomainSpecificationRegistry.RoleOrthogonality orthogonality;
+
+	// cached per generation of the domain graph, since properties are inherited through membership
+	private volatile Description description;
+
 	public TypeRole(Class<?> type)
 	{
 		this.type = type;
@@ -52,9 +77,23 @@ public class TypeRole extends CommunicationRole
 	public void setType(Class<?> type)
 	{
 		this.type = type;
+		description = null;
 	}
 
 	public String toString()
+	{
+		int generation = getGeneration();
+		Class<?> currentType = type;
+		Description current = description;
+		if ((current == null) || (current.generation != generation) || (current.type != currentType))
+		{
+			current = new Description(generation, currentType, describe(currentType));
+			description = current;
+		}
+		return current.text;
+	}
+
+	private String describe(Class<?> type)
 	{
 		StringBuilder buffer = new StringBuilder(RNSUtils.getPlainName(type));
 		java.util.Map<Class<?>, Object> properties = getProperties();
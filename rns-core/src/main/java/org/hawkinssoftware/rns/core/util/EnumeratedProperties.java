@@ -14,12 +14,22 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
- * DOC comment task awaits.
+ * Set of enumerated properties, keyed by enum class (the property domain). An exclusive domain holds at most one value,
+ * and an inclusive domain (annotated <code>@Inclusive</code>) holds any subset of its values.
+ * <p>
+ * The classification of each enum class is cached in a <code>ClassValue</code>. The values of each domain are stored
+ * as a <code>long</code> bitmask of ordinals in a small open-addressed table keyed by identity of the enum class;
+ * domains having more than 64 values are stored as an <code>EnumSet</code> (or the single exclusive value) alongside.
+ * <p>
+ * The table is copied on every change and published as a whole, so a set may be read from any thread without locking
+ * (e.g. the properties of a role); changes are serialized on the set.
  * 
  * @author Byron Hawkins
  */
@@ -72,159 +82,445 @@ public class EnumeratedProperties
 	{
 	}
 
-	private final Map<Class<? extends Enum<?>>, Object> exclusiveDomains = new HashMap<Class<? extends Enum<?>>, Object>();
-	private final Map<Class<? extends Enum<?>>, EnumSet<? extends Enum<?>>> inclusiveDomains = new HashMap<Class<? extends Enum<?>>, EnumSet<? extends Enum<?>>>();
+	/**
+	 * Cached classification and values of one enum class.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	private static class Domain
+	{
+		final DomainType type;
+		final Enum<?>[] values;
+		// domains of more than 64 values cannot be represented as a bitmask
+		final boolean large;
+
+		Domain(Class<?> enumType)
+		{
+			type = (enumType.getAnnotation(Inclusive.class) == null) ? DomainType.EXCLUSIVE : DomainType.INCLUSIVE;
+			values = (Enum<?>[]) enumType.getEnumConstants();
+			large = (values.length > 64);
+		}
+	}
+
+	private static final ClassValue<Domain> DOMAINS = new ClassValue<Domain>() {
+		@Override
+		protected Domain computeValue(Class<?> type)
+		{
+			return new Domain(type);
+		}
+	};
+
+	private static final int INITIAL_CAPACITY = 4;
+
+	/**
+	 * Open-addressed table of the domains, with linear probing; capacity is a power of two, and is doubled when half
+	 * full. A published table is never modified: each change is made to a copy, which then replaces it, so a reader
+	 * always sees the keys, masks and large values of a single table.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	private static class Table
+	{
+		static final Table EMPTY = new Table(0);
+
+		Class<?>[] keys;
+		long[] masks;
+		// only for large domains: the EnumSet of an inclusive domain or the value of an exclusive domain
+		Object[] largeValues;
+		int size = 0;
+
+		Table(int capacity)
+		{
+			keys = new Class<?>[capacity];
+			masks = new long[capacity];
+		}
+
+		/**
+		 * @return a private copy for modification, including copies of any inclusive <code>EnumSet</code>s
+		 */
+		Table copy()
+		{
+			Table copy = new Table(0);
+			copy.keys = keys.clone();
+			copy.masks = masks.clone();
+			if (largeValues != null)
+			{
+				copy.largeValues = largeValues.clone();
+				for (int i = 0; i < largeValues.length; i++)
+				{
+					if (largeValues[i] instanceof EnumSet)
+					{
+						copy.largeValues[i] = ((EnumSet<?>) largeValues[i]).clone();
+					}
+				}
+			}
+			copy.size = size;
+			return copy;
+		}
+
+		int indexOf(Class<?> key)
+		{
+			if (keys.length == 0)
+			{
+				return -1;
+			}
+			int mask = keys.length - 1;
+			int index = System.identityHashCode(key) & mask;
+			while (keys[index] != null)
+			{
+				if (keys[index] == key)
+				{
+					return index;
+				}
+				index = (index + 1) & mask;
+			}
+			return -1;
+		}
+
+		int insert(Class<?> key)
+		{
+			int index = indexOf(key);
+			if (index >= 0)
+			{
+				return index;
+			}
+
+			if (keys.length == 0)
+			{
+				keys = new Class<?>[INITIAL_CAPACITY];
+				masks = new long[INITIAL_CAPACITY];
+			}
+			else if ((size + 1) > (keys.length / 2))
+			{
+				resize(keys.length * 2);
+			}
+
+			int mask = keys.length - 1;
+			index = System.identityHashCode(key) & mask;
+			while (keys[index] != null)
+			{
+				index = (index + 1) & mask;
+			}
+			keys[index] = key;
+			masks[index] = 0L;
+			size++;
+			return index;
+		}
+
+		private void resize(int capacity)
+		{
+			Class<?>[] oldKeys = keys;
+			long[] oldMasks = masks;
+			Object[] oldLargeValues = largeValues;
+
+			keys = new Class<?>[capacity];
+			masks = new long[capacity];
+			largeValues = (oldLargeValues == null) ? null : new Object[capacity];
+
+			int mask = capacity - 1;
+			for (int i = 0; i < oldKeys.length; i++)
+			{
+				if (oldKeys[i] != null)
+				{
+					int index = System.identityHashCode(oldKeys[i]) & mask;
+					while (keys[index] != null)
+					{
+						index = (index + 1) & mask;
+					}
+					keys[index] = oldKeys[i];
+					masks[index] = oldMasks[i];
+					if (oldLargeValues != null)
+					{
+						largeValues[index] = oldLargeValues[i];
+					}
+				}
+			}
+		}
+
+		/**
+		 * Remove the entry at <code>index</code>, shifting back any entries of its probe sequence which follow it.
+		 */
+		void remove(int index)
+		{
+			int mask = keys.length - 1;
+			int gap = index;
+			int next = (gap + 1) & mask;
+			while (keys[next] != null)
+			{
+				int home = System.identityHashCode(keys[next]) & mask;
+				// move the entry into the gap unless its home lies cyclically within (gap, next]
+				if (((next - home) & mask) >= ((next - gap) & mask))
+				{
+					keys[gap] = keys[next];
+					masks[gap] = masks[next];
+					if (largeValues != null)
+					{
+						largeValues[gap] = largeValues[next];
+					}
+					gap = next;
+				}
+				next = (next + 1) & mask;
+			}
+			keys[gap] = null;
+			masks[gap] = 0L;
+			if (largeValues != null)
+			{
+				largeValues[gap] = null;
+			}
+			size--;
+		}
+
+		Object getLargeValue(int index)
+		{
+			return (largeValues == null) ? null : largeValues[index];
+		}
+
+		void setLargeValue(int index, Object value)
+		{
+			if (largeValues == null)
+			{
+				largeValues = new Object[keys.length];
+			}
+			largeValues[index] = value;
+		}
+
+		Object getExclusiveValue(Domain domain, int index)
+		{
+			if (domain.large)
+			{
+				return getLargeValue(index);
+			}
+			return domain.values[Long.numberOfTrailingZeros(masks[index])];
+		}
+
+		boolean contains(Domain domain, int index, Enum<?> value)
+		{
+			if (!domain.large)
+			{
+				return (masks[index] & (1L << value.ordinal())) != 0L;
+			}
+			if (domain.type == DomainType.INCLUSIVE)
+			{
+				return ((EnumSet<?>) getLargeValue(index)).contains(value);
+			}
+			return getLargeValue(index) == value;
+		}
+	}
+
+	// replaced as a whole by each change, under the monitor of this instance
+	private volatile Table table = Table.EMPTY;
+
+	/**
+	 * @return a new list of the domains present in this set, whether exclusive or inclusive
+	 */
+	public List<Class<? extends Enum<?>>> getDomains()
+	{
+		Table current = table;
+		List<Class<? extends Enum<?>>> domains = new ArrayList<Class<? extends Enum<?>>>(current.size);
+		for (Class<?> key : current.keys)
+		{
+			if (key != null)
+			{
+				@SuppressWarnings("unchecked")
+				Class<? extends Enum<?>> domain = (Class<? extends Enum<?>>) key;
+				domains.add(domain);
+			}
+		}
+		return domains;
+	}
 
+	/**
+	 * @return a new map of each exclusive domain to its value
+	 */
 	public Map<Class<? extends Enum<?>>, Object> getExclusivePropertyDomains()
 	{
+		Table current = table;
+		Map<Class<? extends Enum<?>>, Object> exclusiveDomains = new HashMap<Class<? extends Enum<?>>, Object>();
+		for (int i = 0; i < current.keys.length; i++)
+		{
+			if (current.keys[i] != null)
+			{
+				Domain domain = DOMAINS.get(current.keys[i]);
+				if (domain.type == DomainType.EXCLUSIVE)
+				{
+					@SuppressWarnings("unchecked")
+					Class<? extends Enum<?>> key = (Class<? extends Enum<?>>) current.keys[i];
+					exclusiveDomains.put(key, current.getExclusiveValue(domain, i));
+				}
+			}
+		}
 		return exclusiveDomains;
 	}
 
+	/**
+	 * @return the value of the exclusive domain <code>key</code>, or null if it is absent or inclusive
+	 */
 	@SuppressWarnings("unchecked")
 	public <E extends Enum<E>> E getProperty(Class<E> key)
 	{
-		return (E) exclusiveDomains.get(key);
+		Table current = table;
+		int index = current.indexOf(key);
+		if (index < 0)
+		{
+			return null;
+		}
+		Domain domain = DOMAINS.get(key);
+		if (domain.type != DomainType.EXCLUSIVE)
+		{
+			return null;
+		}
+		return (E) current.getExclusiveValue(domain, index);
 	}
 
 	@SuppressWarnings("unchecked")
 	public <E extends Enum<E>> PropertyStatus getPropertyStatus(E... queryValues)
 	{
-		Class<? extends Enum<?>> key = (Class<? extends Enum<?>>) queryValues[0].getClass();
-		switch (getDomainType(key))
+		Table current = table;
+		Class<?> key = queryValues[0].getDeclaringClass();
+		int index = current.indexOf(key);
+		if (index < 0)
 		{
-			case INCLUSIVE:
+			return PropertyStatus.DOMAIN_ABSENT;
+		}
+
+		Domain domain = DOMAINS.get(key);
+		int matchCount = 0;
+		for (E queryValue : queryValues)
+		{
+			if (current.contains(domain, index, queryValue))
 			{
-				EnumSet<? extends Enum<?>> inclusiveSet = inclusiveDomains.get(key);
-				if (inclusiveSet == null)
+				matchCount++;
+			}
+		}
+
+		switch (domain.type)
+		{
+			case INCLUSIVE:
+				if (matchCount == 0)
+				{
+					return PropertyStatus.NO_MATCH;
+				}
+				else if (matchCount == queryValues.length)
 				{
-					return PropertyStatus.DOMAIN_ABSENT;
+					return PropertyStatus.EXACT_MATCH;
 				}
 				else
 				{
-					int matchCount = 0;
-					for (E queryValue : queryValues)
-					{
-						if (inclusiveSet.contains(queryValue))
-						{
-							matchCount++;
-						}
-					}
-					if (matchCount == 0)
-					{
-						return PropertyStatus.NO_MATCH;
-					}
-					else if (matchCount == queryValues.length)
-					{
-						return PropertyStatus.EXACT_MATCH;
-					}
-					else
-					{
-						return PropertyStatus.PARTIAL_MATCH;
-					}
+					return PropertyStatus.PARTIAL_MATCH;
 				}
-			}
 			case EXCLUSIVE:
-			{
-				E value = getProperty((Class<E>) queryValues[0].getClass());
-				if (value == null)
+				if (matchCount == 0)
+				{
+					return PropertyStatus.NO_MATCH;
+				}
+				else if (queryValues.length == 1)
 				{
-					return PropertyStatus.DOMAIN_ABSENT;
+					return PropertyStatus.EXACT_MATCH;
 				}
 				else
 				{
-					for (E queryValue : queryValues)
-					{
-						if (queryValue == value)
-						{
-							if (queryValues.length == 1)
-							{
-								return PropertyStatus.EXACT_MATCH;
-							}
-							else
-							{
-								return PropertyStatus.PARTIAL_MATCH;
-							}
-						}
-					}
-					return PropertyStatus.NO_MATCH;
+					return PropertyStatus.PARTIAL_MATCH;
 				}
-			}
 		}
-		throw new IllegalStateException("Unknown DomainType " + getDomainType(key));
+		throw new IllegalStateException("Unknown DomainType " + domain.type);
 	}
 
-	@SuppressWarnings("unchecked")
-	public <E extends Enum<E>> void setProperty(Class<E> key, E value)
+	public synchronized <E extends Enum<E>> void setProperty(Class<E> key, E value)
 	{
-		switch (getDomainType(key))
+		Domain domain = DOMAINS.get(key);
+		Table modified = table.copy();
+		int index = modified.insert(key);
+		switch (domain.type)
 		{
 			case INCLUSIVE:
-			{
-				EnumSet<E> inclusiveSet = (EnumSet<E>) inclusiveDomains.get(key);
-				if (inclusiveSet == null)
+				if (domain.large)
 				{
-					inclusiveSet = EnumSet.of(value);
-					inclusiveDomains.put(key, inclusiveSet);
+					@SuppressWarnings("unchecked")
+					EnumSet<E> inclusiveSet = (EnumSet<E>) modified.getLargeValue(index);
+					if (inclusiveSet == null)
+					{
+						modified.setLargeValue(index, EnumSet.of(value));
+					}
+					else
+					{
+						inclusiveSet.add(value);
+					}
 				}
 				else
 				{
-					inclusiveSet.add(value);
+					modified.masks[index] |= (1L << value.ordinal());
 				}
-			}
+				break;
 			case EXCLUSIVE:
-			{
-				exclusiveDomains.put(key, value);
-			}
+				if (domain.large)
+				{
+					modified.setLargeValue(index, value);
+				}
+				else
+				{
+					modified.masks[index] = (1L << value.ordinal());
+				}
+				break;
 		}
+		table = modified;
 	}
 
-	public <E extends Enum<E>> void clearDomain(Class<E> key)
+	/**
+	 * An inclusive domain is emptied but remains present; an exclusive domain becomes absent.
+	 */
+	public synchronized <E extends Enum<E>> void clearDomain(Class<E> key)
 	{
-		switch (getDomainType(key))
+		if (table.indexOf(key) < 0)
+		{
+			return;
+		}
+		Table modified = table.copy();
+		int index = modified.indexOf(key);
+		Domain domain = DOMAINS.get(key);
+		switch (domain.type)
 		{
 			case INCLUSIVE:
-			{
-				EnumSet<? extends Enum<?>> inclusiveSet = inclusiveDomains.get(key);
-				if (inclusiveSet != null)
+				modified.masks[index] = 0L;
+				if (domain.large)
 				{
-					inclusiveSet.clear();
+					((EnumSet<?>) modified.getLargeValue(index)).clear();
 				}
-			}
+				break;
 			case EXCLUSIVE:
-			{
-				exclusiveDomains.remove(key);
-			}
+				modified.remove(index);
+				break;
 		}
+		table = modified;
 	}
 
-	public <E extends Enum<E>> void clearProperty(Class<E> key, E value)
+	public synchronized <E extends Enum<E>> void clearProperty(Class<E> key, E value)
 	{
-		switch (getDomainType(key))
+		if (table.indexOf(key) < 0)
+		{
+			return;
+		}
+		Table modified = table.copy();
+		int index = modified.indexOf(key);
+		Domain domain = DOMAINS.get(key);
+		switch (domain.type)
 		{
 			case INCLUSIVE:
-			{
-				EnumSet<? extends Enum<?>> inclusiveSet = inclusiveDomains.get(key);
-				if (inclusiveSet != null)
+				if (domain.large)
 				{
-					inclusiveSet.remove(value);
+					((EnumSet<?>) modified.getLargeValue(index)).remove(value);
 				}
-			}
+				else
+				{
+					modified.masks[index] &= ~(1L << value.ordinal());
+				}
+				break;
 			case EXCLUSIVE:
-			{
-				if (exclusiveDomains.get(key) == value)
+				if (modified.contains(domain, index, value))
 				{
-					exclusiveDomains.remove(key);
+					modified.remove(index);
 				}
-			}
-		}
-	}
-
-	private DomainType getDomainType(Class<? extends Enum<?>> type)
-	{
-		if (type.getAnnotation(Inclusive.class) != null)
-		{
-			return DomainType.INCLUSIVE;
+				break;
 		}
-		return DomainType.EXCLUSIVE;
+		table = modified;
 	}
 }
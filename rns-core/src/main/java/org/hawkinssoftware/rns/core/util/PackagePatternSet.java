@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2011 HawkinsSoftware
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Byron Hawkins of HawkinsSoftware
+ */
+package org.hawkinssoftware.rns.core.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable set of package (or class name) patterns, compiled once for repeated matching. The patterns have the
+ * semantics of <code>String.matches()</code>: each is a regular expression which must match the entire name. Patterns
+ * composed only of literal characters, escaped punctuation, <code>.</code> wildcards and an optional trailing
+ * <code>.*</code> (e.g. <code>"com.foo.*"</code> or <code>"sun\\..*"</code>) are compiled into a prefix trie, so a
+ * name is tested against all of them in a single walk. Any other pattern is joined into one alternation, which is
+ * consulted only when the trie has no match.
+ * 
+ * @author Byron Hawkins
+ */
+public class PackagePatternSet
+{
+	public static final PackagePatternSet EMPTY = new PackagePatternSet(new String[0]);
+
+	/**
+	 * Trie node. Children are keyed by a literal character, and <code>any</code> is the child for a <code>.</code>
+	 * wildcard. A node where a pattern ends holds that pattern in <code>terminal</code>, or in
+	 * <code>prefixTerminal</code> if the pattern ends with <code>.*</code> and so matches any remainder.
+	 * 
+	 * @author Byron Hawkins
+	 */
+	private static class Node
+	{
+		char[] labels = new char[0];
+		Node[] children = new Node[0];
+		Node any;
+		String terminal;
+		String prefixTerminal;
+
+		Node getChild(char label)
+		{
+			for (int i = 0; i < labels.length; i++)
+			{
+				if (labels[i] == label)
+				{
+					return children[i];
+				}
+			}
+			return null;
+		}
+
+		Node addChild(char label)
+		{
+			Node child = getChild(label);
+			if (child == null)
+			{
+				child = new Node();
+				labels = Arrays.copyOf(labels, labels.length + 1);
+				children = Arrays.copyOf(children, children.length + 1);
+				labels[labels.length - 1] = label;
+				children[children.length - 1] = child;
+			}
+			return child;
+		}
+	}
+
+	private static final char ANY = 0;
+
+	private final Node root = new Node();
+	private final String[] patterns;
+	private final List<Pattern> irregularPatterns = new ArrayList<Pattern>();
+	private final Pattern irregularAlternation;
+
+	public PackagePatternSet(Collection<String> patterns)
+	{
+		this(patterns.toArray(new String[patterns.size()]));
+	}
+
+	public PackagePatternSet(String... patterns)
+	{
+		this.patterns = patterns.clone();
+
+		StringBuilder alternation = new StringBuilder();
+		for (String pattern : patterns)
+		{
+			if (!addToTrie(pattern))
+			{
+				irregularPatterns.add(Pattern.compile(pattern));
+				if (alternation.length() > 0)
+				{
+					alternation.append('|');
+				}
+				alternation.append("(?:").append(pattern).append(')');
+			}
+		}
+		irregularAlternation = irregularPatterns.isEmpty() ? null : Pattern.compile(alternation.toString());
+	}
+
+	public boolean isEmpty()
+	{
+		return patterns.length == 0;
+	}
+
+	public boolean matches(String name)
+	{
+		return (findMatch(root, name, 0) != null) || ((irregularAlternation != null) && irregularAlternation.matcher(name).matches());
+	}
+
+	/**
+	 * @return the first pattern found to match <code>name</code>, or null if none of them match
+	 */
+	public String getMatchingPattern(String name)
+	{
+		String match = findMatch(root, name, 0);
+		if ((match == null) && (irregularAlternation != null) && irregularAlternation.matcher(name).matches())
+		{
+			for (Pattern pattern : irregularPatterns)
+			{
+				if (pattern.matcher(name).matches())
+				{
+					return pattern.pattern();
+				}
+			}
+		}
+		return match;
+	}
+
+	@Override
+	public String toString()
+	{
+		return Arrays.toString(patterns);
+	}
+
+	private String findMatch(Node node, String name, int index)
+	{
+		while (true)
+		{
+			if (node.prefixTerminal != null)
+			{
+				return node.prefixTerminal;
+			}
+			if (index == name.length())
+			{
+				return node.terminal;
+			}
+
+			Node next = node.getChild(name.charAt(index));
+			if (node.any != null)
+			{
+				if (next == null)
+				{
+					next = node.any;
+				}
+				else
+				{
+					// both the literal and the wildcard branch are viable; only here does the walk fork
+					String match = findMatch(node.any, name, index + 1);
+					if (match != null)
+					{
+						return match;
+					}
+				}
+			}
+			if (next == null)
+			{
+				return null;
+			}
+			node = next;
+			index++;
+		}
+	}
+
+	/**
+	 * @return false if the pattern is not simple enough for the trie
+	 */
+	private boolean addToTrie(String pattern)
+	{
+		StringBuilder path = new StringBuilder();
+		boolean prefix = false;
+		for (int i = 0; i < pattern.length(); i++)
+		{
+			char c = pattern.charAt(i);
+			if (c == '\\')
+			{
+				if ((i + 1 == pattern.length()) || Character.isLetterOrDigit(pattern.charAt(i + 1)))
+				{
+					// character class or other escape sequence
+					return false;
+				}
+				path.append(pattern.charAt(++i));
+			}
+			else if (c == '.')
+			{
+				if ((i + 2 == pattern.length()) && (pattern.charAt(i + 1) == '*'))
+				{
+					prefix = true;
+					break;
+				}
+				path.append(ANY);
+			}
+			else if (Character.isJavaIdentifierPart(c) && (c != '$') && (c != ANY))
+			{
+				path.append(c);
+			}
+			else
+			{
+				return false;
+			}
+		}
+
+		Node node = root;
+		for (int i = 0; i < path.length(); i++)
+		{
+			char c = path.charAt(i);
+			if (c == ANY)
+			{
+				if (node.any == null)
+				{
+					node.any = new Node();
+				}
+				node = node.any;
+			}
+			else
+			{
+				node = node.addChild(c);
+			}
+		}
+		if (prefix)
+		{
+			if (node.prefixTerminal == null)
+			{
+				node.prefixTerminal = pattern;
+			}
+		}
+		else if (node.terminal == null)
+		{
+			node.terminal = pattern;
+		}
+		return true;
+	}
+}